@@ -0,0 +1,57 @@
+package com.fileshare.bench;
+
+import com.fileshare.core.MetaJournal;
+import com.fileshare.core.Storage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Подготовка хранилища с заданным числом записей для бенчмарков
+ * Журнал пишется напрямую одной перезаписью, поэтому даже миллион записей создаётся за секунды;
+ * сами файлы не создаются - бенчмарки работают только с метаданными
+ */
+final class BenchData {
+    private static final String[] EXTENSIONS = {"pdf", "txt", "csv", "log", "png", "zip", "json", "docx"};
+
+    private BenchData() {}
+
+    static List<Storage.Meta> metas(int count, long seed) {
+        Random random = new Random(seed);
+        long now = System.currentTimeMillis() / 1000;
+        List<Storage.Meta> metas = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String token = String.format("%032x", (long) i * 0x9E3779B97F4A7C15L & Long.MAX_VALUE);
+            String ext = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            long size = (long) Math.exp(random.nextDouble() * 20);
+            long created = now - random.nextInt(30 * 24 * 3600);
+            long downloads = random.nextInt(100) < 80 ? random.nextInt(5) : random.nextInt(10_000);
+            metas.add(new Storage.Meta(token, "file-" + i + "." + ext, "application/octet-stream", size,
+                    created, downloads == 0 ? 0 : created + 60, downloads, String.format("%064x", i)));
+        }
+        return metas;
+    }
+
+    static Storage storage(Path root, List<Storage.Meta> metas) throws IOException {
+        Path filesDir = Files.createDirectories(root.resolve("files"));
+        Path metaDir = Files.createDirectories(root.resolve("meta"));
+        MetaJournal journal = new MetaJournal(metaDir.resolve("journal.log"));
+        journal.rewrite(metas);
+        journal.close();
+        return new Storage(filesDir, metaDir);
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) return;
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
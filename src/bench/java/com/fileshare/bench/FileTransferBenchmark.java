@@ -0,0 +1,85 @@
+package com.fileshare.bench;
+
+import com.fileshare.utils.FileTransfer;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Отдача файла: Files.copy (прежний путь) и буферы из пула.
+ * Счётчики bytes и cpuNanos суммируются за итерацию, их отношение - CPU на байт
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileTransferBenchmark {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @Param({"1048576", "67108864"})
+    public int size;
+
+    private Path file;
+    private FileOutputStream devNull;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+        public long cpuNanos;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("fileshare-bench", ".bin");
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (int written = 0; written < size; written += chunk.length) {
+                os.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+        devNull = new FileOutputStream("/dev/null");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        devNull.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long filesCopy(Counters counters) throws IOException {
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        long n = Files.copy(file, devNull);
+        record(counters, n, cpu);
+        return n;
+    }
+
+    @Benchmark
+    public long pooledBuffers(Counters counters) throws IOException {
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        long n;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            n = FileTransfer.transfer(ch, 0, ch.size(), devNull);
+        }
+        record(counters, n, cpu);
+        return n;
+    }
+
+    private static void record(Counters counters, long bytes, long cpuStart) {
+        counters.bytes += bytes;
+        counters.cpuNanos += THREADS.getCurrentThreadCpuTime() - cpuStart;
+    }
+}
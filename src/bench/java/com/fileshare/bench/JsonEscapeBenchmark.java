@@ -0,0 +1,36 @@
+package com.fileshare.bench;
+
+import com.fileshare.utils.JsonUtils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Экранирование строк для JSON на типичных именах файлов и на строке,
+ * где экранировать приходится почти каждый символ
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonEscapeBenchmark {
+    @Param({"ascii", "cyrillic", "escapes"})
+    public String input;
+
+    private String value;
+
+    @Setup
+    public void setup() {
+        value = switch (input) {
+            case "ascii" -> "quarterly-report_2024-final (copy 2).xlsx";
+            case "cyrillic" -> "Отчёт за квартал - итоговая версия (копия 2).xlsx";
+            default -> "\"quoted\"\t\\path\\to\\file\r\n\u0001\u001f\"".repeat(3);
+        };
+    }
+
+    @Benchmark
+    public String escapeJson() {
+        return JsonUtils.escapeJson(value);
+    }
+}
@@ -0,0 +1,426 @@
+package com.fileshare.bench;
+
+import com.fileshare.utils.LogLinearHistogram;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Нагрузочный тест HTTP API
+ * Запускает FileShareApplication отдельным процессом с временным DATA_DIR (или работает с уже
+ * запущенным сервером через --url), получает токен и в --concurrency потоков выполняет смесь
+ * загрузок, скачиваний, списков и статистики. Выводит пропускную способность и перцентили
+ * задержки по каждой операции; --json сохраняет тот же отчёт в файл.
+ *
+ * mvn -Pbench compile exec:exec@load-test -Dload.args="--duration=60 --concurrency=32"
+ */
+public final class LoadTest {
+    private static final String BOUNDARY = "----FileShareLoadTest7MA4YWxkTrZu0gW";
+    private static final Pattern TOKEN = Pattern.compile("\"token\"\\s*:\\s*\"([^\"]+)\"");
+
+    enum Op { UPLOAD, DOWNLOAD, LIST, STATS }
+
+    /**
+     * Результаты одного потока по одной операции; потоки сливаются в конце без синхронизации
+     */
+    static final class OpStats {
+        final LogLinearHistogram latencyMicros = new LogLinearHistogram();
+        long requests;
+        long errors;
+        long bytes;
+        long maxMicros;
+
+        // Гистограмма возвращает верхнюю границу корзины, она не должна превышать реальный максимум
+        long quantile(double q) {
+            return Math.min(latencyMicros.quantile(q), maxMicros);
+        }
+
+        void merge(OpStats other) {
+            latencyMicros.merge(other.latencyMicros);
+            requests += other.requests;
+            errors += other.errors;
+            bytes += other.bytes;
+            maxMicros = Math.max(maxMicros, other.maxMicros);
+        }
+    }
+
+    record SizeClass(int bytes, int weight) {}
+
+    private final Map<String, String> options;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final List<String> tokens = new CopyOnWriteArrayList<>();
+    private final AtomicLong uploadSeq = new AtomicLong();
+    private String baseUrl;
+    private String authHeader;
+    private Map<Integer, byte[]> payloads;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        if (options.containsKey("help")) {
+            printUsage();
+            return;
+        }
+        new LoadTest(options).run();
+    }
+
+    private void run() throws Exception {
+        int durationSec = intOption("duration", 30);
+        int warmupSec = intOption("warmup", 5);
+        int concurrency = intOption("concurrency", 16);
+        int seedFiles = intOption("seed-files", 100);
+        EnumMap<Op, Integer> mix = parseMix(options.getOrDefault("mix", "upload=1,download=6,list=2,stats=1"));
+        List<SizeClass> sizes = parseSizes(options.getOrDefault("sizes", "4k:50,256k:30,4m:15,32m:5"));
+
+        Process server = null;
+        Path dataDir = null;
+        try {
+            if (options.containsKey("url")) {
+                baseUrl = stripSlash(options.get("url"));
+            } else {
+                dataDir = Files.createTempDirectory("fileshare-load");
+                int port = freePort();
+                baseUrl = "http://127.0.0.1:" + port;
+                server = startServer(port, dataDir);
+            }
+            waitForServer(Duration.ofSeconds(30));
+            authHeader = "Bearer " + authenticate();
+            payloads = new LinkedHashMap<>();
+            Random random = new Random(42);
+            for (SizeClass s : sizes) {
+                byte[] data = new byte[s.bytes];
+                random.nextBytes(data);
+                payloads.put(s.bytes, data);
+            }
+
+            System.out.printf(Locale.ROOT, "Target %s, %d threads, %ds warmup + %ds, mix %s%n",
+                    baseUrl, concurrency, warmupSec, durationSec, mix);
+            System.out.printf(Locale.ROOT, "Seeding %d files...%n", seedFiles);
+            OpStats ignored = new OpStats();
+            for (int i = 0; i < seedFiles; i++) {
+                upload(pickSize(sizes, ThreadLocalRandom.current()), ignored);
+            }
+
+            long start = System.nanoTime();
+            long measureFrom = start + warmupSec * 1_000_000_000L;
+            long end = measureFrom + durationSec * 1_000_000_000L;
+            List<EnumMap<Op, OpStats>> perThread = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                EnumMap<Op, OpStats> stats = new EnumMap<>(Op.class);
+                for (Op op : Op.values()) stats.put(op, new OpStats());
+                perThread.add(stats);
+                Thread t = new Thread(() -> work(stats, mix, sizes, measureFrom, end), "load-" + i);
+                threads.add(t);
+                t.start();
+            }
+            for (Thread t : threads) t.join();
+
+            EnumMap<Op, OpStats> total = new EnumMap<>(Op.class);
+            for (Op op : Op.values()) total.put(op, new OpStats());
+            for (EnumMap<Op, OpStats> stats : perThread) {
+                for (Op op : Op.values()) total.get(op).merge(stats.get(op));
+            }
+            printReport(total, durationSec);
+            if (options.containsKey("json")) writeJson(Path.of(options.get("json")), total, durationSec, concurrency);
+        } finally {
+            if (server != null) {
+                server.destroy();
+                server.waitFor();
+            }
+            if (dataDir != null && !options.containsKey("keep-data")) BenchData.deleteTree(dataDir);
+        }
+    }
+
+    private void work(EnumMap<Op, OpStats> stats, EnumMap<Op, Integer> mix, List<SizeClass> sizes,
+                      long measureFrom, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        OpStats warmup = new OpStats();
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            Op op = pickOp(mix, totalWeight, random);
+            OpStats target = now >= measureFrom ? stats.get(op) : warmup;
+            long t0 = System.nanoTime();
+            boolean ok;
+            try {
+                ok = switch (op) {
+                    case UPLOAD -> upload(pickSize(sizes, random), target);
+                    case DOWNLOAD -> download(random, target);
+                    case LIST -> get("/api/files?limit=50", target);
+                    case STATS -> get("/api/stats", target);
+                };
+            } catch (IOException e) {
+                ok = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long micros = (System.nanoTime() - t0) / 1000;
+            target.requests++;
+            if (!ok) target.errors++;
+            target.latencyMicros.add(micros);
+            target.maxMicros = Math.max(target.maxMicros, micros);
+        }
+    }
+
+    private boolean upload(int size, OpStats stats) throws IOException, InterruptedException {
+        byte[] data = payloads.get(size);
+        // Уникальное начало каждого файла, иначе сервер дедуплицирует содержимое и не пишет блоб
+        byte[] unique = new byte[Math.min(16, size)];
+        long seq = uploadSeq.incrementAndGet();
+        for (int i = 0; i < unique.length && i < 8; i++) unique[i] = (byte) (seq >>> (i * 8));
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"load-" + seq
+                + ".bin\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/upload"))
+                .header("Authorization", authHeader)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofByteArray(head),
+                        HttpRequest.BodyPublishers.ofByteArray(unique),
+                        HttpRequest.BodyPublishers.ofByteArray(data, unique.length, data.length - unique.length),
+                        HttpRequest.BodyPublishers.ofByteArray(tail)))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) return false;
+        Matcher m = TOKEN.matcher(response.body());
+        if (!m.find()) return false;
+        tokens.add(m.group(1));
+        stats.bytes += head.length + size + tail.length;
+        return true;
+    }
+
+    private boolean download(ThreadLocalRandom random, OpStats stats) throws IOException, InterruptedException {
+        if (tokens.isEmpty()) return false;
+        String token = tokens.get(random.nextInt(tokens.size()));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/d/" + token)).GET().build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        stats.bytes += drain(response.body());
+        return response.statusCode() == 200;
+    }
+
+    private boolean get(String path, OpStats stats) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", authHeader)
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        stats.bytes += drain(response.body());
+        return response.statusCode() == 200;
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try (in) {
+            int n;
+            while ((n = in.read(buffer)) > 0) total += n;
+        }
+        return total;
+    }
+
+    private Process startServer(int port, Path dataDir) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>(List.of(java));
+        String jvmArgs = options.get("server-jvm-args");
+        if (jvmArgs != null && !jvmArgs.isBlank()) command.addAll(List.of(jvmArgs.trim().split("\\s+")));
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), "com.fileshare.FileShareApplication"));
+        ProcessBuilder pb = new ProcessBuilder(command);
+        // Остальные настройки сервера (HTTP_EXECUTOR, HOT_CACHE_BYTES и т.д.) наследуются из окружения
+        pb.environment().put("PORT", Integer.toString(port));
+        pb.environment().put("DATA_DIR", dataDir.toString());
+        pb.environment().putIfAbsent("AUTH_ENABLED", "true");
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(dataDir.resolve("server.log").toFile());
+        System.out.println("Server log: " + dataDir.resolve("server.log"));
+        return pb.start();
+    }
+
+    private void waitForServer(Duration timeout) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/")).GET().build();
+        while (true) {
+            try {
+                client.send(request, HttpResponse.BodyHandlers.discarding());
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) throw new IOException("Server did not start at " + baseUrl, e);
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private String authenticate() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/auth"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"loadtest\"}"))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        Matcher m = TOKEN.matcher(response.body());
+        if (response.statusCode() != 200 || !m.find()) {
+            throw new IOException("Authentication failed: " + response.statusCode() + " " + response.body());
+        }
+        return m.group(1);
+    }
+
+    private static void printReport(EnumMap<Op, OpStats> total, int durationSec) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-9s %9s %7s %10s %10s %9s %9s %9s %9s %9s%n",
+                "op", "requests", "errors", "req/s", "MB/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<Op, OpStats> e : total.entrySet()) {
+            OpStats s = e.getValue();
+            if (s.requests == 0) continue;
+            System.out.printf(Locale.ROOT, "%-9s %9d %7d %10.1f %10.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    e.getKey().name().toLowerCase(Locale.ROOT), s.requests, s.errors,
+                    (double) s.requests / durationSec, s.bytes / 1e6 / durationSec,
+                    ms(s.quantile(0.5)), ms(s.quantile(0.9)),
+                    ms(s.quantile(0.99)), ms(s.quantile(0.999)), ms(s.maxMicros));
+        }
+    }
+
+    private static void writeJson(Path file, EnumMap<Op, OpStats> total, int durationSec, int concurrency)
+            throws IOException {
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write(String.format(Locale.ROOT, "{\"durationSec\":%d,\"concurrency\":%d,\"ops\":{", durationSec, concurrency));
+            boolean first = true;
+            for (Map.Entry<Op, OpStats> e : total.entrySet()) {
+                OpStats s = e.getValue();
+                if (!first) w.write(",");
+                first = false;
+                w.write(String.format(Locale.ROOT,
+                        "\"%s\":{\"requests\":%d,\"errors\":%d,\"requestsPerSec\":%.2f,\"bytesPerSec\":%.0f,"
+                                + "\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"p999Ms\":%.3f,\"maxMs\":%.3f}",
+                        e.getKey().name().toLowerCase(Locale.ROOT), s.requests, s.errors,
+                        (double) s.requests / durationSec, (double) s.bytes / durationSec,
+                        ms(s.quantile(0.5)), ms(s.quantile(0.9)),
+                        ms(s.quantile(0.99)), ms(s.quantile(0.999)), ms(s.maxMicros)));
+            }
+            w.write("}}\n");
+        }
+        System.out.println("Report saved to " + file);
+    }
+
+    private static double ms(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static Op pickOp(EnumMap<Op, Integer> mix, int totalWeight, ThreadLocalRandom random) {
+        int r = random.nextInt(totalWeight);
+        for (Map.Entry<Op, Integer> e : mix.entrySet()) {
+            r -= e.getValue();
+            if (r < 0) return e.getKey();
+        }
+        throw new IllegalStateException();
+    }
+
+    private static int pickSize(List<SizeClass> sizes, Random random) {
+        int total = sizes.stream().mapToInt(SizeClass::weight).sum();
+        int r = random.nextInt(total);
+        for (SizeClass s : sizes) {
+            r -= s.weight;
+            if (r < 0) return s.bytes;
+        }
+        return sizes.get(sizes.size() - 1).bytes;
+    }
+
+    static EnumMap<Op, Integer> parseMix(String spec) {
+        EnumMap<Op, Integer> mix = new EnumMap<>(Op.class);
+        for (String item : spec.split(",")) {
+            String[] kv = item.trim().split("=");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight > 0) mix.put(Op.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), weight);
+        }
+        if (mix.isEmpty()) throw new IllegalArgumentException("Empty --mix");
+        return mix;
+    }
+
+    static List<SizeClass> parseSizes(String spec) {
+        List<SizeClass> sizes = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            String[] kv = item.trim().split(":");
+            sizes.add(new SizeClass(parseBytes(kv[0].trim()), kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1));
+        }
+        return sizes;
+    }
+
+    static int parseBytes(String value) {
+        String v = value.toLowerCase(Locale.ROOT);
+        int multiplier = 1;
+        if (v.endsWith("k")) multiplier = 1024;
+        if (v.endsWith("m")) multiplier = 1024 * 1024;
+        if (multiplier > 1) v = v.substring(0, v.length() - 1);
+        return Math.max(16, Integer.parseInt(v) * multiplier);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String v = options.get(name);
+        return v == null ? defaultValue : Integer.parseInt(v);
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + arg);
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private static void printUsage() {
+        System.out.println("""
+                Options:
+                  --duration=30            measured seconds
+                  --warmup=5               seconds excluded from the report
+                  --concurrency=16         worker threads, each with one request in flight
+                  --mix=upload=1,download=6,list=2,stats=1
+                  --sizes=4k:50,256k:30,4m:15,32m:5   upload sizes and their weights
+                  --seed-files=100         files uploaded before the run
+                  --url=http://host:port   use a running server instead of starting one
+                  --server-jvm-args="-Xmx2g"
+                  --json=report.json       also write the report as JSON
+                  --keep-data              keep the temporary DATA_DIR""");
+    }
+}
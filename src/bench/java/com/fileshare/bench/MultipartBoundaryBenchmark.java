@@ -0,0 +1,117 @@
+package com.fileshare.bench;
+
+import com.fileshare.utils.BoundaryMatcher;
+import com.fileshare.utils.MultipartStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Поиск границы multipart: исходный алгоритм (поиск CRLF и сравнение маркера),
+ * наивный поиск разделителя и Хорспул на случайных и насыщенных CRLF данных
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultipartBoundaryBenchmark {
+    private static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxkTrZu0gW";
+
+    @Param({"random", "crlf"})
+    public String payload;
+
+    @Param({"4194304"})
+    public int size;
+
+    private byte[] body;
+    private int dataStart;
+    private byte[] delimiter;
+    private BoundaryMatcher matcher;
+    private final byte[] sink = new byte[64 * 1024];
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[size];
+        Random random = new Random(42);
+        if (payload.equals("crlf")) {
+            byte[] pattern = "line of text\r\n--\r\n".getBytes(StandardCharsets.ISO_8859_1);
+            for (int i = 0; i < size; i++) data[i] = pattern[i % pattern.length];
+        } else {
+            random.nextBytes(data);
+        }
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        body = new byte[head.length + data.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(data, 0, body, head.length, data.length);
+        System.arraycopy(tail, 0, body, head.length + data.length, tail.length);
+        dataStart = head.length;
+        delimiter = ("\r\n--" + BOUNDARY).getBytes(StandardCharsets.ISO_8859_1);
+        matcher = new BoundaryMatcher(delimiter);
+    }
+
+    @Benchmark
+    public int legacyCrlfScan() {
+        byte[] crlf = {'\r', '\n'};
+        byte[] marker = ("--" + BOUNDARY).getBytes(StandardCharsets.ISO_8859_1);
+        int searchPos = dataStart;
+        while (true) {
+            int crlfPos = legacyFindBytes(body, crlf, searchPos);
+            if (crlfPos < 0) return -1;
+            if (legacyStartsWith(body, crlfPos + crlf.length, marker)) return crlfPos;
+            searchPos = crlfPos + 1;
+        }
+    }
+
+    @Benchmark
+    public int naiveScan() {
+        return legacyFindBytes(body, delimiter, dataStart);
+    }
+
+    @Benchmark
+    public int horspoolScan() {
+        return matcher.indexOf(body, dataStart, body.length);
+    }
+
+    @Benchmark
+    public long multipartStream() throws IOException {
+        MultipartStream multipart = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+        long total = 0;
+        MultipartStream.Part part;
+        while ((part = multipart.nextPart()) != null) {
+            InputStream in = part.body();
+            int n;
+            while ((n = in.read(sink, 0, sink.length)) > 0) total += n;
+        }
+        return total;
+    }
+
+    private static int legacyFindBytes(byte[] haystack, byte[] needle, int start) {
+        for (int i = start; i <= haystack.length - needle.length; i++) {
+            boolean found = true;
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    found = false;
+                    break;
+                }
+            }
+            if (found) return i;
+        }
+        return -1;
+    }
+
+    private static boolean legacyStartsWith(byte[] array, int offset, byte[] prefix) {
+        if (offset + prefix.length > array.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (array[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
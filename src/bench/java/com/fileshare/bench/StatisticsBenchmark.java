@@ -0,0 +1,73 @@
+package com.fileshare.bench;
+
+import com.fileshare.core.Auth;
+import com.fileshare.core.SortedFileIndex;
+import com.fileshare.core.Storage;
+import com.fileshare.core.StorageStatistics;
+import com.fileshare.core.TokenManager;
+import com.fileshare.handlers.DetailedStatisticsHandler;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Детальная статистика: снимок из инкрементальных агрегатов, полный ответ
+ * /api/file-stats и стоимость поддержания агрегатов при изменении записи
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class StatisticsBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    private Path root;
+    private Storage storage;
+    private StorageStatistics statistics;
+    private DetailedStatisticsHandler handler;
+    private String[] tokens;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("fileshare-bench");
+        List<Storage.Meta> metas = BenchData.metas(entries, 7);
+        storage = BenchData.storage(root, metas);
+        statistics = new StorageStatistics(storage, new SortedFileIndex(storage));
+        handler = new DetailedStatisticsHandler(statistics, new Auth(new TokenManager(24), false));
+        tokens = metas.stream().map(m -> m.token).toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        BenchData.deleteTree(root);
+    }
+
+    @Benchmark
+    public StorageStatistics.Snapshot snapshot() {
+        return statistics.snapshot();
+    }
+
+    @Benchmark
+    public long detailedStatisticsResponse() throws IOException {
+        BenchExchange exchange = new BenchExchange("GET", "/api/file-stats", null);
+        handler.handle(exchange);
+        return exchange.responseBytes;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Storage.Meta updateWithStatistics() throws IOException {
+        Storage.Meta m = storage.readMeta(tokens[ThreadLocalRandom.current().nextInt(tokens.length)]);
+        Storage.Meta updated = m.withDownloads(m.lastDownloadedEpochSec + 1, m.downloadCount + 1);
+        storage.writeMeta(updated);
+        return updated;
+    }
+}
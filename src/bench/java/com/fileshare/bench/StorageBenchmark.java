@@ -0,0 +1,63 @@
+package com.fileshare.bench;
+
+import com.fileshare.core.Storage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Операции с метаданными Storage при разном числе файлов: поиск по токену,
+ * запись в журнал с обновлением индекса и полный список
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    private Path root;
+    private Storage storage;
+    private String[] tokens;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("fileshare-bench");
+        List<Storage.Meta> metas = BenchData.metas(entries, 42);
+        storage = BenchData.storage(root, metas);
+        tokens = metas.stream().map(m -> m.token).toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        BenchData.deleteTree(root);
+    }
+
+    @Benchmark
+    public Storage.Meta readMeta() {
+        return storage.readMeta(tokens[ThreadLocalRandom.current().nextInt(tokens.length)]);
+    }
+
+    @Benchmark
+    public Storage.Meta writeMeta() throws IOException {
+        Storage.Meta m = storage.readMeta(tokens[ThreadLocalRandom.current().nextInt(tokens.length)]);
+        Storage.Meta updated = m.withDownloads(m.lastDownloadedEpochSec + 1, m.downloadCount + 1);
+        storage.writeMeta(updated);
+        return updated;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int listMetas() {
+        return storage.listMetas().size();
+    }
+}
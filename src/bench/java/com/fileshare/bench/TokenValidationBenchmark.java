@@ -0,0 +1,68 @@
+package com.fileshare.bench;
+
+import com.fileshare.core.SignedTokenManager;
+import com.fileshare.core.TokenManager;
+import com.fileshare.core.TokenService;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Проверка токенов из нескольких потоков: действительные и неизвестные токены.
+ * memory - поиск в таблице TokenManager, signed - проверка HMAC-подписи SignedTokenManager
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class TokenValidationBenchmark {
+    private static final byte[] SECRET = "benchmark-secret-benchmark-secret!".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OTHER_SECRET = "another-node-secret-another-node!!".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"10000"})
+    public int activeTokens;
+
+    @Param({"memory", "signed"})
+    public String mode;
+
+    private TokenService tokenManager;
+    private String[] valid;
+    private String[] unknown;
+
+    @Setup
+    public void setup() {
+        tokenManager = create(SECRET);
+        valid = new String[activeTokens];
+        for (int i = 0; i < activeTokens; i++) {
+            valid[i] = tokenManager.generateToken("user" + (i % 100));
+        }
+        // Токены другого экземпляра (другого ключа) здесь неизвестны
+        TokenService other = create(OTHER_SECRET);
+        unknown = new String[1024];
+        for (int i = 0; i < unknown.length; i++) {
+            unknown[i] = other.generateToken("intruder");
+        }
+        // Несколько отозванных токенов, чтобы список отзыва не был пуст
+        for (int i = 0; i < 100; i++) {
+            tokenManager.revokeToken(tokenManager.generateToken("revoked"));
+        }
+    }
+
+    private TokenService create(byte[] secret) {
+        return mode.equals("signed") ? new SignedTokenManager(24, secret) : new TokenManager(24);
+    }
+
+    @Benchmark
+    public boolean validToken() {
+        return tokenManager.validateToken(valid[ThreadLocalRandom.current().nextInt(valid.length)]);
+    }
+
+    @Benchmark
+    public boolean unknownToken() {
+        return tokenManager.validateToken(unknown[ThreadLocalRandom.current().nextInt(unknown.length)]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.fileshare.bench;
+
+import com.fileshare.core.Auth;
+import com.fileshare.core.Storage;
+import com.fileshare.core.TokenManager;
+import com.fileshare.handlers.FileUploadHandler;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Загрузка через FileUploadHandler целиком: разбор multipart, хеширование и запись
+ * во временный файл. Содержимое одно и то же, поэтому блоб после первой загрузки
+ * дедуплицируется и диск не переполняется
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadHandlerBenchmark {
+    private static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxkTrZu0gW";
+
+    @Param({"4096", "1048576", "16777216"})
+    public int size;
+
+    private Path root;
+    private Storage storage;
+    private FileUploadHandler handler;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("fileshare-bench");
+        storage = new Storage(Files.createDirectories(root.resolve("files")),
+                Files.createDirectories(root.resolve("meta")));
+        handler = new FileUploadHandler(storage, new Auth(new TokenManager(24), false));
+
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        body = new byte[head.length + data.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(data, 0, body, head.length, data.length);
+        System.arraycopy(tail, 0, body, head.length + data.length, tail.length);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        BenchData.deleteTree(root);
+    }
+
+    @Benchmark
+    public int upload() throws IOException {
+        BenchExchange exchange = new BenchExchange("POST", "/api/upload", body);
+        exchange.getRequestHeaders().set("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+        handler.handle(exchange);
+        if (exchange.getResponseCode() != 200) throw new IllegalStateException("Upload failed: " + exchange.getResponseCode());
+        return exchange.getResponseCode();
+    }
+}
@@ -1,17 +1,32 @@
 package com.fileshare;
 
+import com.fileshare.core.HotFileCache;
+import com.fileshare.core.SortedFileIndex;
 import com.fileshare.core.Storage;
+import com.fileshare.core.StorageStatistics;
 import com.fileshare.core.Auth;
+import com.fileshare.core.SignedTokenManager;
 import com.fileshare.core.TokenManager;
+import com.fileshare.core.TokenService;
 import com.fileshare.handlers.*;
+import com.fileshare.services.BandwidthShaper;
 import com.fileshare.services.CleanupService;
+import com.fileshare.services.DiskBudgetService;
+import com.fileshare.services.LayoutMigrationService;
+import com.fileshare.services.MetricsRegistry;
+import com.fileshare.services.UploadSessions;
 import com.fileshare.utils.Environment;
+import com.fileshare.utils.RequestExecutors;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.SecureRandom;
 import java.time.Duration;
+import java.util.Locale;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -32,48 +47,241 @@ public class FileShareApplication {
 
         HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
 
-        Storage storage = new Storage(filesDir, metaDir);
+        int shardDepth = Environment.getInt("STORAGE_SHARD_DEPTH", Storage.DEFAULT_SHARD_DEPTH);
+        boolean compressAtRest = Environment.getBoolean("COMPRESS_AT_REST", true);
+        Storage storage = new Storage(filesDir, metaDir, shardDepth, compressAtRest);
+        LayoutMigrationService.start(storage);
+        SortedFileIndex fileIndex = new SortedFileIndex(storage);
+        StorageStatistics statistics = new StorageStatistics(storage, fileIndex);
+
+        // Disk budget: 0 disables size-based eviction
+        long diskBudgetBytes = Environment.getLong("DISK_BUDGET_BYTES", 0);
+        DiskBudgetService diskBudget = diskBudgetBytes > 0
+            ? DiskBudgetService.start(storage, diskBudgetBytes,
+                Environment.getDouble("DISK_BUDGET_HIGH_WATERMARK", 0.95),
+                Environment.getDouble("DISK_BUDGET_LOW_WATERMARK", 0.85),
+                Environment.getBoolean("EVICTION_SIZE_WEIGHTED", false))
+            : null;
+
+        // Hot-file cache: 0 disables it
+        long hotCacheBytes = Environment.getLong("HOT_CACHE_BYTES", 0);
+        HotFileCache hotCache = hotCacheBytes > 0
+            ? new HotFileCache(storage, hotCacheBytes, Environment.getLong("HOT_CACHE_MAX_FILE_BYTES", 1024 * 1024))
+            : null;
         
         // Настройка системы авторизации
         boolean authEnabled = Environment.get("AUTH_ENABLED", "true").equalsIgnoreCase("true");
         long tokenExpirationHours = Environment.getLong("TOKEN_EXPIRATION_HOURS", 24);
-        TokenManager tokenManager = new TokenManager(tokenExpirationHours);
+        // memory: token table on this node; signed: HMAC tokens verifiable by every node sharing TOKEN_SECRET
+        String tokenMode = Environment.get("TOKEN_MODE", "memory").trim().toLowerCase(Locale.ROOT);
+        if (!tokenMode.equals("memory") && !tokenMode.equals("signed")) {
+            System.err.println("Unknown TOKEN_MODE '" + tokenMode + "', using memory");
+            tokenMode = "memory";
+        }
+        // Token table snapshot: 0 disables persistence across restarts
+        long tokenSnapshotSeconds = Environment.getLong("TOKEN_SNAPSHOT_SECONDS", 60);
+        TokenManager tokenTable = tokenMode.equals("signed") ? null
+            : tokenSnapshotSeconds > 0
+                ? new TokenManager(tokenExpirationHours, metaDir.resolve("tokens.snapshot"))
+                : new TokenManager(tokenExpirationHours);
+        TokenService tokenManager = tokenTable != null ? tokenTable
+            : new SignedTokenManager(tokenExpirationHours, tokenSecret());
         Auth auth = new Auth(tokenManager, authEnabled);
 
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        // Bandwidth shaping of upload and download bodies: 0 disables the corresponding limit
+        long bandwidthClient = Environment.getLong("BANDWIDTH_CLIENT_BYTES_PER_SEC", 0);
+        long bandwidthTotal = Environment.getLong("BANDWIDTH_TOTAL_BYTES_PER_SEC", 0);
+        BandwidthShaper shaper = bandwidthClient > 0 || bandwidthTotal > 0
+            ? new BandwidthShaper(bandwidthClient, bandwidthTotal, bandwidthKeyMode(), auth)
+            : null;
+
         // Static files
-        server.createContext("/", new StaticFileHandler());
+        route(server, metrics, "/", new StaticFileHandler());
 
         // API endpoints
-        server.createContext("/api/auth", new AuthHandler(tokenManager));
-        server.createContext("/api/upload", new FileUploadHandler(storage, auth));
-        server.createContext("/api/stats", new StatisticsHandler(storage, auth));
-        server.createContext("/api/files", new FileListHandler(storage, auth));
-        server.createContext("/api/delete", new FileDeleteHandler(storage));
-        server.createContext("/api/file-stats", new DetailedStatisticsHandler(storage, auth));
+        route(server, metrics, "/api/auth", new AuthHandler(tokenManager));
+        route(server, metrics, "/api/upload", shaped(shaper, new FileUploadHandler(storage, auth)));
+        long uploadSessionTtlMinutes = Environment.getLong("UPLOAD_SESSION_TTL_MINUTES", 60);
+        int uploadChunkSize = Environment.getInt("UPLOAD_CHUNK_SIZE", 8 * 1024 * 1024);
+        UploadSessions uploadSessions = new UploadSessions(storage, Duration.ofMinutes(uploadSessionTtlMinutes), diskBudget,
+                Environment.getInt("UPLOAD_MAX_SESSIONS", 1000), Environment.getInt("UPLOAD_MAX_SESSIONS_PER_CLIENT", 16));
+        route(server, metrics, "/api/uploads", shaped(shaper, new ChunkedUploadHandler(uploadSessions, auth, uploadChunkSize)));
+        route(server, metrics, "/api/stats", new StatisticsHandler(statistics, diskBudget, hotCache, auth));
+        route(server, metrics, "/api/files", new FileListHandler(fileIndex, auth));
+        route(server, metrics, "/api/delete", new FileDeleteHandler(storage));
+        route(server, metrics, "/api/file-stats", new DetailedStatisticsHandler(statistics, auth));
 
         // File downloads
-        server.createContext("/d", new FileDownloadHandler(storage));
+        route(server, metrics, "/d", shaped(shaper, new FileDownloadHandler(storage, hotCache)));
 
         // Cleanup scheduler
         long daysToLive = Environment.getLong("DAYS_TO_LIVE", 30);
         Duration ttl = Duration.ofDays(daysToLive);
-        CleanupService.start(storage, ttl);
+        CleanupService cleanup = CleanupService.start(storage, ttl);
+
+        // Metrics: every context above is instrumented via route()
+        route(server, metrics, "/api/metrics", new MetricsHandler(metrics, Environment.get("METRICS_TOKEN", "")));
+        registerGauges(metrics, storage, statistics, cleanup, diskBudget, hotCache, uploadSessions, tokenManager, shaper);
         
-        // Token cleanup scheduler
+        // Token cleanup scheduler: the timing wheel only touches tokens that are due
         ScheduledExecutorService tokenCleanupExecutor = Executors.newScheduledThreadPool(1);
         tokenCleanupExecutor.scheduleAtFixedRate(
             tokenManager::cleanupExpiredTokens,
-            1, 1, TimeUnit.HOURS
+            1, 1, TimeUnit.SECONDS
         );
+        if (tokenTable != null && tokenSnapshotSeconds > 0) {
+            tokenCleanupExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    tokenTable.saveSnapshot();
+                } catch (IOException e) {
+                    System.err.println("Token snapshot error: " + e.getMessage());
+                }
+            }, tokenSnapshotSeconds, tokenSnapshotSeconds, TimeUnit.SECONDS);
+        }
+
+        // Abandoned chunked uploads
+        tokenCleanupExecutor.scheduleWithFixedDelay(() -> {
+            int n = uploadSessions.expireIdle();
+            if (n > 0) System.out.println("Expired " + n + " idle upload sessions");
+        }, 1, 1, TimeUnit.MINUTES);
 
-        server.setExecutor(null);
+        // Idle per-client rate limiters
+        if (shaper != null) {
+            tokenCleanupExecutor.scheduleWithFixedDelay(shaper::expireIdle, 1, 1, TimeUnit.MINUTES);
+        }
+
+        // Metadata journal compaction
+        tokenCleanupExecutor.scheduleAtFixedRate(() -> {
+            try {
+                storage.compactJournal();
+            } catch (IOException e) {
+                System.err.println("Journal compaction error: " + e.getMessage());
+            }
+        }, 10, 10, TimeUnit.MINUTES);
+
+        // Write-behind download counters
+        long downloadFlushSeconds = Environment.getLong("DOWNLOAD_FLUSH_SECONDS", 5);
+        tokenCleanupExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                storage.flushDownloads();
+            } catch (IOException e) {
+                System.err.println("Download counters flush error: " + e.getMessage());
+            }
+        }, downloadFlushSeconds, downloadFlushSeconds, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                if (tokenTable != null) tokenTable.saveSnapshot();
+            } catch (IOException e) {
+                System.err.println("Token snapshot error: " + e.getMessage());
+            }
+            try {
+                storage.close();
+            } catch (IOException e) {
+                System.err.println("Storage close error: " + e.getMessage());
+            }
+        }));
+
+        RequestExecutors.Selection executor = RequestExecutors.fromEnvironment();
+        server.setExecutor(executor.executor());
         System.out.println("FileShare server started on port " + port);
+        System.out.println("Request execution: " + executor.description());
         System.out.println("Data directory: " + dataDir.toAbsolutePath());
         String authInfo = auth.isEnabled() ? "enabled (token-based)" : "disabled";
         System.out.println("Upload auth: " + authInfo);
+        if (diskBudget != null) {
+            System.out.println("Disk budget: " + diskBudgetBytes + " bytes, in use " + storage.storedBytes());
+        }
+        if (hotCache != null) {
+            System.out.println("Hot-file cache: " + hotCacheBytes + " bytes");
+        }
+        if (shaper != null) {
+            System.out.println("Bandwidth limit: " + (bandwidthClient > 0 ? bandwidthClient + " B/s per client" : "no per-client limit")
+                + ", " + (bandwidthTotal > 0 ? bandwidthTotal + " B/s total" : "no total limit"));
+        }
         if (auth.isEnabled()) {
-            System.out.println("Token expiration: " + tokenExpirationHours + " hours");
+            System.out.println("Token expiration: " + tokenExpirationHours + " hours, mode " + tokenMode);
         }
         server.start();
     }
+
+    /**
+     * Ключ подписи токенов из TOKEN_SECRET; без него - случайный ключ, действующий до перезапуска
+     */
+    private static byte[] tokenSecret() {
+        String secret = Environment.get("TOKEN_SECRET", "");
+        if (!secret.isEmpty()) return secret.getBytes(StandardCharsets.UTF_8);
+        System.err.println("TOKEN_SECRET is not set: using a random key, tokens will not be accepted by other nodes or after restart");
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+
+    private static BandwidthShaper.KeyMode bandwidthKeyMode() {
+        String key = Environment.get("BANDWIDTH_KEY", "user").trim().toLowerCase(Locale.ROOT);
+        switch (key) {
+            case "ip":
+                return BandwidthShaper.KeyMode.IP;
+            case "user":
+                return BandwidthShaper.KeyMode.USER;
+            default:
+                System.err.println("Unknown BANDWIDTH_KEY '" + key + "', using user");
+                return BandwidthShaper.KeyMode.USER;
+        }
+    }
+
+    private static HttpHandler shaped(BandwidthShaper shaper, HttpHandler handler) {
+        return shaper != null ? shaper.shape(handler) : handler;
+    }
+
+    private static void route(HttpServer server, MetricsRegistry metrics, String path, HttpHandler handler) {
+        server.createContext(path, metrics.instrument(path, RequestExecutors.shedding(handler)));
+    }
+
+    private static void registerGauges(MetricsRegistry metrics, Storage storage, StorageStatistics statistics,
+                                       CleanupService cleanup, DiskBudgetService diskBudget, HotFileCache hotCache,
+                                       UploadSessions uploadSessions, TokenService tokenManager,
+                                       BandwidthShaper shaper) {
+        metrics.gauge("files", "Stored files", statistics::totalFiles);
+        metrics.gauge("files_bytes", "Original size of stored files", statistics::totalSize);
+        metrics.gauge("stored_bytes", "Bytes on disk after deduplication and compression", storage::storedBytes);
+        metrics.counter("downloads", "File downloads", statistics::totalDownloads);
+        metrics.gauge("unflushed_downloads", "Downloads not yet written to the journal", storage::unflushedDownloads);
+        metrics.counter("cleanup_runs", "Expiry passes", cleanup::runs);
+        metrics.counter("cleanup_expired_files", "Files removed after the retention period", cleanup::expiredFiles);
+        metrics.gauge("cleanup_queued_files", "Files waiting in the expiry queue", cleanup::queuedFiles);
+        metrics.gauge("upload_sessions", "Open chunked upload sessions", uploadSessions::activeSessions);
+        metrics.gauge("upload_sessions_reserved_bytes", "Declared size of open chunked upload sessions", uploadSessions::reservedBytes);
+        metrics.counter("http_shed_requests", "Requests answered 503 because the worker queue was full", RequestExecutors::shedRequests);
+        if (shaper != null) {
+            metrics.gauge("bandwidth_client_bytes_per_second", "Per-client limit in each direction, 0 if unlimited", shaper::clientBytesPerSecond);
+            metrics.gauge("bandwidth_total_bytes_per_second", "Aggregate limit in each direction, 0 if unlimited", shaper::totalBytesPerSecond);
+            metrics.gauge("bandwidth_client_buckets", "Per-client rate limiters in use", shaper::trackedClients);
+            metrics.counter("bandwidth_upload_throttled_bytes", "Request body bytes received over the rate limit", shaper::uploadThrottledBytes);
+            metrics.counter("bandwidth_upload_wait_milliseconds", "Time uploads spent paused by the rate limit", shaper::uploadWaitMillis);
+            metrics.counter("bandwidth_download_throttled_bytes", "Response body bytes sent over the rate limit", shaper::downloadThrottledBytes);
+            metrics.counter("bandwidth_download_wait_milliseconds", "Time downloads spent paused by the rate limit", shaper::downloadWaitMillis);
+        }
+        if (tokenManager instanceof TokenManager table) {
+            metrics.gauge("auth_tokens", "Issued tokens not yet expired or revoked", table::activeTokens);
+        } else if (tokenManager instanceof SignedTokenManager signed) {
+            metrics.gauge("auth_revoked_tokens", "Revoked signed tokens not yet expired", signed::revokedTokens);
+        }
+        if (diskBudget != null) {
+            metrics.gauge("disk_budget_bytes", "Configured disk budget", diskBudget::budgetBytes);
+            metrics.counter("disk_budget_evicted_files", "Files evicted to stay within the disk budget", diskBudget::evictedFiles);
+            metrics.counter("disk_budget_evicted_bytes", "Bytes freed by eviction", diskBudget::evictedBytes);
+        }
+        if (hotCache != null) {
+            metrics.gauge("hot_cache_capacity_bytes", "Hot-file cache capacity", hotCache::capacityBytes);
+            metrics.gauge("hot_cache_bytes", "Bytes held by the hot-file cache", hotCache::usedBytes);
+            metrics.gauge("hot_cache_entries", "Files held by the hot-file cache", hotCache::entries);
+            metrics.counter("hot_cache_hits", "Downloads served from the hot-file cache", hotCache::hits);
+            metrics.counter("hot_cache_misses", "Downloads not found in the hot-file cache", hotCache::misses);
+            metrics.counter("hot_cache_evictions", "Files evicted from the hot-file cache", hotCache::evictions);
+            metrics.counter("hot_cache_rejections", "Files refused by the cache admission policy", hotCache::rejections);
+        }
+    }
 }
@@ -7,10 +7,10 @@ import com.sun.net.httpserver.HttpExchange;
  * Проверяет токены в заголовках запросов
  */
 public class Auth {
-    private final TokenManager tokenManager;
+    private final TokenService tokenManager;
     private final boolean authEnabled;
 
-    public Auth(TokenManager tokenManager, boolean authEnabled) {
+    public Auth(TokenService tokenManager, boolean authEnabled) {
         this.tokenManager = tokenManager;
         this.authEnabled = authEnabled;
     }
@@ -0,0 +1,157 @@
+package com.fileshare.core;
+
+import com.fileshare.core.Storage.Meta;
+import com.fileshare.utils.FrequencySketch;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш содержимого небольших часто скачиваемых файлов вне кучи
+ * Вытеснение - LRU в пределах бюджета байт. Новый файл вытесняет старые, только если по
+ * частотному эскизу (TinyLFU) его скачивают чаще каждого из них, так что разовые скачивания
+ * не вымывают популярные файлы. Записи сбрасываются при удалении файла из Storage
+ */
+public class HotFileCache implements Storage.ChangeListener {
+    private static final int AVERAGE_ENTRY_BYTES = 16 * 1024;
+
+    private final Storage storage;
+    private final long capacityBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long usedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public HotFileCache(Storage storage, long capacityBytes, long maxEntryBytes) {
+        this.storage = storage;
+        this.capacityBytes = capacityBytes;
+        this.maxEntryBytes = Math.min(Math.min(maxEntryBytes, capacityBytes), Integer.MAX_VALUE);
+        // Эскиз помнит в несколько раз больше ключей, чем помещается в кэш
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, 4 * Math.max(1, capacityBytes / AVERAGE_ENTRY_BYTES)));
+        storage.addListener(this);
+    }
+
+    @Override
+    public void onPut(Meta previous, Meta current) {
+        if (previous != null && !Objects.equals(previous.digest, current.digest)) invalidate(current.token);
+    }
+
+    @Override
+    public void onRemove(Meta removed) {
+        invalidate(removed.token);
+    }
+
+    /**
+     * Содержимое файла из кэша (буфер только для чтения) или null. Обращение учитывается в частоте
+     */
+    public ByteBuffer get(String token) {
+        ByteBuffer buffer;
+        synchronized (this) {
+            sketch.increment(token);
+            buffer = entries.get(token);
+        }
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return buffer.duplicate();
+    }
+
+    /**
+     * Попытка поместить файл в кэш после промаха. Возвращает буфер с содержимым или null,
+     * если файл велик или не прошёл допуск. Чтение идёт вне блокировки
+     */
+    public ByteBuffer load(String token, FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > maxEntryBytes || !admits(token, size, false)) return null;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) throw new EOFException("File is shorter than expected");
+        }
+        buffer.flip();
+        ByteBuffer readOnly = buffer.asReadOnlyBuffer();
+
+        synchronized (this) {
+            // Пока файл читался, место могли занять
+            if (entries.containsKey(token) || !admits(token, size, true)) return readOnly.duplicate();
+            entries.put(token, readOnly);
+            usedBytes += size;
+        }
+        // Файл удалили во время чтения: onRemove уже прошёл, запись убирается здесь
+        if (storage.readMeta(token) == null) invalidate(token);
+        return readOnly.duplicate();
+    }
+
+    /**
+     * Проверка допуска TinyLFU; при evict освобождает место под файл
+     */
+    private synchronized boolean admits(String token, long size, boolean evict) {
+        long needed = usedBytes + size - capacityBytes;
+        if (needed <= 0) return true;
+        int frequency = sketch.frequency(token);
+        List<String> victims = new ArrayList<>();
+        long freed = 0;
+        for (Iterator<Map.Entry<String, ByteBuffer>> it = entries.entrySet().iterator(); freed < needed && it.hasNext(); ) {
+            Map.Entry<String, ByteBuffer> victim = it.next();
+            if (sketch.frequency(victim.getKey()) >= frequency) {
+                rejections.incrementAndGet();
+                return false;
+            }
+            victims.add(victim.getKey());
+            freed += victim.getValue().capacity();
+        }
+        if (!evict) return true;
+        for (String victim : victims) {
+            usedBytes -= entries.remove(victim).capacity();
+        }
+        evictions.addAndGet(victims.size());
+        return true;
+    }
+
+    public synchronized void invalidate(String token) {
+        ByteBuffer removed = entries.remove(token);
+        if (removed != null) usedBytes -= removed.capacity();
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int entries() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public long rejections() {
+        return rejections.get();
+    }
+}
@@ -0,0 +1,232 @@
+package com.fileshare.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал метаданных только на дозапись
+ * Каждая строка - запись put (полное состояние файла) или del, с контрольной суммой CRC32.
+ * Повреждённый хвост после аварийного завершения при чтении пропускается
+ */
+public final class MetaJournal {
+    private static final String PUT = "put";
+    private static final String DEL = "del";
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private final Path path;
+    private FileChannel channel;
+    private Writer writer;
+    private long records;
+
+    public MetaJournal(Path path) {
+        this.path = path;
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * Восстановление индекса из журнала
+     * Недописанная последняя строка (без перевода строки) отрезается, иначе следующая запись
+     * приклеилась бы к ней и потерялась при следующем чтении
+     */
+    public synchronized void replay(Map<String, Storage.Meta> index) throws IOException {
+        records = 0;
+        long validEnd = 0;
+        long offset = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] chunk = new byte[64 * 1024];
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    if (chunk[i] != '\n') continue;
+                    line.write(chunk, start, i - start);
+                    validEnd = offset + i + 1;
+                    apply(line.toString(StandardCharsets.UTF_8), index);
+                    line.reset();
+                    start = i + 1;
+                }
+                line.write(chunk, start, n - start);
+                offset += n;
+            }
+        }
+        if (offset > validEnd) {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(validEnd);
+                ch.force(true);
+            }
+        }
+    }
+
+    private void apply(String line, Map<String, Storage.Meta> index) {
+        String body = verify(line);
+        if (body == null) return;
+        records++;
+        if (body.startsWith(PUT + "\t")) {
+            Storage.Meta m = decode(body.substring(PUT.length() + 1));
+            if (m != null) index.put(m.token, m);
+        } else if (body.startsWith(DEL + "\t")) {
+            index.remove(body.substring(DEL.length() + 1));
+        }
+    }
+
+    public synchronized void appendPut(Storage.Meta m) throws IOException {
+        append(PUT + "\t" + encode(m));
+    }
+
+    /**
+     * Дозапись нескольких записей с одним сбросом буфера
+     */
+    public synchronized void appendPuts(Collection<Storage.Meta> metas) throws IOException {
+        for (Storage.Meta m : metas) {
+            write(PUT + "\t" + encode(m));
+        }
+        writer.flush();
+    }
+
+    public synchronized void appendDelete(String token) throws IOException {
+        append(DEL + "\t" + token);
+    }
+
+    /**
+     * Журнал стоит сжать, когда в нём заметно больше записей, чем живых файлов
+     */
+    public synchronized boolean needsCompaction(int liveEntries) {
+        return records > MIN_COMPACTION_RECORDS && records > 2L * liveEntries;
+    }
+
+    /**
+     * Перезапись журнала текущим состоянием: новый файл пишется рядом и атомарно подменяет старый
+     */
+    public synchronized void rewrite(Collection<Storage.Meta> metas) throws IOException {
+        closeWriter();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Writer w = Channels.newWriter(ch, StandardCharsets.UTF_8)) {
+            for (Storage.Meta m : metas) {
+                w.write(seal(PUT + "\t" + encode(m)));
+            }
+            w.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = metas.size();
+    }
+
+    public synchronized void close() throws IOException {
+        closeWriter();
+    }
+
+    private void append(String body) throws IOException {
+        write(body);
+        writer.flush();
+    }
+
+    private void write(String body) throws IOException {
+        if (writer == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+        }
+        writer.write(seal(body));
+        records++;
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            channel = null;
+        }
+    }
+
+    private static String seal(String body) {
+        return body + "\t#" + Long.toHexString(crc(body)) + "\n";
+    }
+
+    private static String verify(String line) {
+        int i = line.lastIndexOf("\t#");
+        if (i < 0) return null;
+        String body = line.substring(0, i);
+        try {
+            return Long.parseLong(line.substring(i + 2), 16) == crc(body) ? body : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long crc(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    static String encode(Storage.Meta m) {
+        return "token=" + m.token
+                + "\toriginalName=" + enc(m.originalName)
+                + "\tcontentType=" + enc(m.contentType)
+                + "\tsizeBytes=" + m.sizeBytes
+                + "\tcreatedAtEpochSec=" + m.createdAtEpochSec
+                + "\tlastDownloadedEpochSec=" + m.lastDownloadedEpochSec
+                + "\tdownloadCount=" + m.downloadCount
+                + (m.digest == null ? "" : "\tdigest=" + m.digest)
+                + (m.encoding == null ? "" : "\tstoredBytes=" + m.storedBytes + "\tencoding=" + m.encoding);
+    }
+
+    static Storage.Meta decode(String fields) {
+        String token = null, originalName = null, contentType = null, digest = null, encoding = null;
+        long size = 0, created = 0, last = 0, count = 0, stored = -1;
+        for (String field : fields.split("\t")) {
+            int i = field.indexOf('=');
+            if (i <= 0) continue;
+            String k = field.substring(0, i);
+            String v = field.substring(i + 1);
+            switch (k) {
+                case "token" -> token = v;
+                case "originalName" -> originalName = dec(v);
+                case "contentType" -> contentType = dec(v);
+                case "sizeBytes" -> size = parseLong(v);
+                case "createdAtEpochSec" -> created = parseLong(v);
+                case "lastDownloadedEpochSec" -> last = parseLong(v);
+                case "downloadCount" -> count = parseLong(v);
+                case "digest" -> digest = v.isEmpty() ? null : v;
+                case "storedBytes" -> stored = parseLong(v);
+                case "encoding" -> encoding = v.isEmpty() ? null : v;
+            }
+        }
+        if (token == null || token.isEmpty()) return null;
+        // Записи без storedBytes - несжатые файлы, на диске они занимают sizeBytes
+        return new Storage.Meta(token, originalName, contentType, size, created, last, count, digest,
+                encoding == null || stored < 0 ? size : stored, encoding);
+    }
+
+    private static String enc(String s) {
+        return s == null ? "" : URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    private static String dec(String s) {
+        return URLDecoder.decode(s, StandardCharsets.UTF_8);
+    }
+
+    private static long parseLong(String s) {
+        try { return Long.parseLong(s.trim()); } catch (Exception e) { return 0L; }
+    }
+}
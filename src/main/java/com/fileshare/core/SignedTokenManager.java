@@ -0,0 +1,219 @@
+package com.fileshare.core;
+
+import com.fileshare.utils.BloomFilter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Подписанные токены без состояния на сервере
+ * Токен - base64url(данные).base64url(HMAC-SHA256(данные)), данные содержат версию, срок действия,
+ * случайный идентификатор и имя пользователя. Любой узел с тем же ключом проверяет токен
+ * без обращения к общему хранилищу. Декодирование идёт в буферы потока, память при проверке
+ * выделяет только сам Mac (около 48 байт на вызов).
+ * Отзыв действует только на узле, где он выполнен: идентификаторы отозванных токенов хранятся
+ * до истечения их срока, перед списком стоит фильтр Блума
+ */
+public final class SignedTokenManager implements TokenService {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final int MAC_BYTES = 32;
+    // версия + срок действия + идентификатор
+    private static final int HEADER_BYTES = 1 + 8 + 8;
+    public static final int MAX_USERNAME_BYTES = 256;
+    private static final int MAX_PAYLOAD_BYTES = HEADER_BYTES + MAX_USERNAME_BYTES;
+    private static final int MAC_CHARS = (MAC_BYTES * 4 + 2) / 3;
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final int REVOCATION_FILTER_KEYS = 4096;
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) DECODE[alphabet.charAt(i)] = (byte) i;
+    }
+
+    /**
+     * Буферы и экземпляр Mac одного потока
+     */
+    private final class Verifier {
+        final Mac mac = newMac(key);
+        final byte[] payload = new byte[MAX_PAYLOAD_BYTES];
+        final byte[] signature = new byte[MAC_BYTES];
+        final byte[] expected = new byte[MAC_BYTES];
+    }
+
+    private final SecretKeySpec key;
+    private final long tokenExpirationMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Verifier> verifiers = ThreadLocal.withInitial(Verifier::new);
+    // Идентификатор отозванного токена -> срок его действия
+    private final ConcurrentMap<Long, Long> revoked = new ConcurrentHashMap<>();
+    private volatile BloomFilter revokedFilter = new BloomFilter(REVOCATION_FILTER_KEYS);
+
+    public SignedTokenManager(long tokenExpirationHours, byte[] secret) {
+        if (secret.length < MIN_SECRET_BYTES) {
+            throw new IllegalArgumentException("Token secret must be at least " + MIN_SECRET_BYTES + " bytes");
+        }
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.tokenExpirationMillis = tokenExpirationHours * 3600_000L;
+        newMac(key); // неподдерживаемый алгоритм обнаруживается при старте, а не на первом запросе
+    }
+
+    @Override
+    public String generateToken(String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_USERNAME_BYTES) {
+            throw new IllegalArgumentException("Username is longer than " + MAX_USERNAME_BYTES + " bytes");
+        }
+        byte[] payload = new byte[HEADER_BYTES + name.length];
+        payload[0] = VERSION;
+        putLong(payload, 1, System.currentTimeMillis() + tokenExpirationMillis);
+        putLong(payload, 9, random.nextLong());
+        System.arraycopy(name, 0, payload, HEADER_BYTES, name.length);
+        byte[] signature = verifiers.get().mac.doFinal(payload);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(signature);
+    }
+
+    @Override
+    public boolean validateToken(String token) {
+        return validLength(token, verifiers.get()) >= 0;
+    }
+
+    @Override
+    public String getUsername(String token) {
+        Verifier v = verifiers.get();
+        int length = validLength(token, v);
+        if (length < 0) return null;
+        return new String(v.payload, HEADER_BYTES, length - HEADER_BYTES, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Подпись, срок действия и отзыв за одну проверку HMAC; данные остаются в буферах v
+     *
+     * @return длина данных или -1, если токен недействителен
+     */
+    private int validLength(String token, Verifier v) {
+        if (token == null) return -1;
+        int length = verify(token, v);
+        if (length < 0) return -1;
+        if (System.currentTimeMillis() > getLong(v.payload, 1)) return -1;
+        long id = getLong(v.payload, 9);
+        if (revokedFilter.mightContain(id) && revoked.containsKey(id)) return -1;
+        return length;
+    }
+
+    @Override
+    public void revokeToken(String token) {
+        if (token == null) return;
+        Verifier v = verifiers.get();
+        if (verify(token, v) < 0) return;
+        long expiresAt = getLong(v.payload, 1);
+        if (System.currentTimeMillis() > expiresAt) return;
+        long id = getLong(v.payload, 9);
+        revoked.put(id, expiresAt);
+        revokedFilter.put(id);
+    }
+
+    public int revokedTokens() {
+        return revoked.size();
+    }
+
+    /**
+     * Удаление из списка отзыва токенов, срок которых истёк; фильтр строится заново
+     */
+    @Override
+    public synchronized int cleanupExpiredTokens() {
+        long now = System.currentTimeMillis();
+        int before = revoked.size();
+        revoked.values().removeIf(expiresAt -> now > expiresAt);
+        int removed = before - revoked.size();
+        if (removed > 0) {
+            BloomFilter filter = new BloomFilter(Math.max(REVOCATION_FILTER_KEYS, revoked.size() * 2));
+            for (Long id : revoked.keySet()) filter.put(id);
+            revokedFilter = filter;
+            // Отозванные во время перестроения попадают и в новый фильтр
+            for (Map.Entry<Long, Long> e : revoked.entrySet()) filter.put(e.getKey());
+        }
+        return removed;
+    }
+
+    /**
+     * Декодирование и проверка подписи в буферы потока
+     *
+     * @return длина данных или -1, если токен повреждён или подпись неверна
+     */
+    private static int verify(String token, Verifier v) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || token.length() - dot - 1 != MAC_CHARS) return -1;
+        int length = decode(token, 0, dot, v.payload);
+        if (length < HEADER_BYTES || v.payload[0] != VERSION) return -1;
+        if (decode(token, dot + 1, token.length(), v.signature) != MAC_BYTES) return -1;
+        try {
+            v.mac.update(v.payload, 0, length);
+            v.mac.doFinal(v.expected, 0);
+        } catch (GeneralSecurityException e) {
+            return -1;
+        }
+        return MessageDigest.isEqual(v.expected, v.signature) ? length : -1;
+    }
+
+    /**
+     * base64url без дополнения из части строки в массив
+     *
+     * @return число байт или -1, если строка не base64url или не помещается в out
+     */
+    private static int decode(String s, int from, int to, byte[] out) {
+        int chars = to - from;
+        if (chars % 4 == 1) return -1;
+        int bytes = chars / 4 * 3 + Math.max(0, chars % 4 - 1);
+        if (bytes > out.length) return -1;
+        int n = 0;
+        int buffer = 0;
+        int bits = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            int d = c < 128 ? DECODE[c] : -1;
+            if (d < 0) return -1;
+            buffer = (buffer << 6) | d;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[n++] = (byte) (buffer >>> bits);
+            }
+        }
+        return n;
+    }
+
+    private static void putLong(byte[] b, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            b[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] b, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (b[offset + i] & 0xFF);
+        return value;
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
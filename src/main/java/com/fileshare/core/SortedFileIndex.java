@@ -0,0 +1,164 @@
+package com.fileshare.core;
+
+import com.fileshare.core.Storage.Meta;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Отсортированные вторичные индексы файлов для постраничной выдачи списка
+ * Поддерживаются по событиям Storage; страница стоит O(log n + размер страницы).
+ * Порядок по скачиваниям обновляется при сбросе счётчиков в журнал
+ */
+public class SortedFileIndex implements Storage.ChangeListener {
+    public enum SortField {
+        NAME("name", Comparator.comparing(SortedFileIndex::nameOf, String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(SortedFileIndex::nameOf)),
+        SIZE("size", Comparator.comparingLong(m -> m.sizeBytes)),
+        CREATED("created", Comparator.comparingLong(m -> m.createdAtEpochSec)),
+        DOWNLOADS("downloads", Comparator.comparingLong(m -> m.downloadCount)),
+        LAST_DOWNLOADED("lastDownloaded", Comparator.comparingLong(m -> m.lastDownloadedEpochSec));
+
+        public final String param;
+        // Токен в конце делает порядок строгим и курсор однозначным
+        final Comparator<Meta> order;
+
+        SortField(String param, Comparator<Meta> key) {
+            this.param = param;
+            this.order = key.thenComparing(m -> m.token);
+        }
+
+        public static SortField fromParam(String value) {
+            for (SortField f : values()) {
+                if (f.param.equalsIgnoreCase(value)) return f;
+            }
+            throw new IllegalArgumentException("Unknown sort field: " + value);
+        }
+    }
+
+    private final Storage storage;
+    private final Map<SortField, ConcurrentSkipListSet<Meta>> indexes = new EnumMap<>(SortField.class);
+
+    public SortedFileIndex(Storage storage) {
+        this.storage = storage;
+        for (SortField f : SortField.values()) {
+            indexes.put(f, new ConcurrentSkipListSet<>(f.order));
+        }
+        storage.addListener(this);
+    }
+
+    @Override
+    public void onPut(Meta previous, Meta current) {
+        for (Map.Entry<SortField, ConcurrentSkipListSet<Meta>> e : indexes.entrySet()) {
+            ConcurrentSkipListSet<Meta> set = e.getValue();
+            // Запись с тем же ключом остаётся на месте: актуальные поля берутся из Storage при выдаче
+            if (previous != null) {
+                if (e.getKey().order.compare(previous, current) == 0) continue;
+                set.remove(previous);
+            }
+            set.add(current);
+        }
+    }
+
+    @Override
+    public void onRemove(Meta removed) {
+        for (ConcurrentSkipListSet<Meta> set : indexes.values()) {
+            set.remove(removed);
+        }
+    }
+
+    /**
+     * Запись с наименьшим ключом или null, если файлов нет
+     */
+    public Meta first(SortField field) {
+        Iterator<Meta> it = indexes.get(field).iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * Запись с наибольшим ключом или null, если файлов нет
+     */
+    public Meta last(SortField field) {
+        Iterator<Meta> it = indexes.get(field).descendingIterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * Получатель записей страницы; вызывается по мере обхода индекса
+     */
+    public interface PageSink {
+        void accept(Meta meta) throws IOException;
+    }
+
+    /**
+     * Обход страницы после курсора без промежуточного списка. limit <= 0 - все оставшиеся файлы.
+     * Возвращает курсор следующей страницы или null, если она пуста
+     */
+    public String forEachInPage(SortField field, boolean descending, String cursor, int limit, PageSink sink)
+            throws IOException {
+        NavigableSet<Meta> view = indexes.get(field);
+        if (descending) view = view.descendingSet();
+        if (cursor != null && !cursor.isEmpty()) view = view.tailSet(decodeCursor(field, cursor), false);
+        int emitted = 0;
+        Meta last = null;
+        Iterator<Meta> it = view.iterator();
+        while (it.hasNext() && (limit <= 0 || emitted < limit)) {
+            Meta entry = it.next();
+            Meta current = storage.readMeta(entry.token);
+            if (current == null) continue;
+            sink.accept(current);
+            emitted++;
+            last = entry;
+        }
+        return last != null && it.hasNext() ? encodeCursor(field, last) : null;
+    }
+
+    // Курсор - позиция последней выданной записи: ключ сортировки и токен
+    private static String encodeCursor(SortField field, Meta m) {
+        String key = switch (field) {
+            case NAME -> nameOf(m);
+            case SIZE -> Long.toString(m.sizeBytes);
+            case CREATED -> Long.toString(m.createdAtEpochSec);
+            case DOWNLOADS -> Long.toString(m.downloadCount);
+            case LAST_DOWNLOADED -> Long.toString(m.lastDownloadedEpochSec);
+        };
+        String raw = field.param + "\t" + m.token + "\t" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Meta decodeCursor(SortField field, String cursor) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\t", 3);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (parts.length != 3 || !parts[0].equals(field.param)) {
+            throw new IllegalArgumentException("Cursor does not match sort field");
+        }
+        String token = parts[1];
+        if (field == SortField.NAME) return new Meta(token, parts[2], null, 0, 0, 0, 0);
+        long key;
+        try {
+            key = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return switch (field) {
+            case SIZE -> new Meta(token, null, null, key, 0, 0, 0);
+            case CREATED -> new Meta(token, null, null, 0, key, 0, 0);
+            case DOWNLOADS -> new Meta(token, null, null, 0, 0, 0, key);
+            default -> new Meta(token, null, null, 0, 0, key, 0);
+        };
+    }
+
+    private static String nameOf(Meta m) {
+        return m.originalName == null ? "" : m.originalName;
+    }
+}
@@ -1,20 +1,48 @@
 package com.fileshare.core;
 
+import com.fileshare.utils.Compression;
+import com.fileshare.utils.SeekableGzip;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
-import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 public class Storage {
     public static class Meta {
@@ -25,9 +53,28 @@ public class Storage {
         public final long createdAtEpochSec;
         public final long lastDownloadedEpochSec;
         public final long downloadCount;
+        // SHA-256 содержимого; null у файлов, загруженных до перехода на общее хранилище
+        public final String digest;
+        // Размер на диске; отличается от sizeBytes у сжатых файлов
+        public final long storedBytes;
+        // Сжатие на диске (Compression.GZIP) или null, если файл хранится как есть
+        public final String encoding;
 
         public Meta(String token, String originalName, String contentType, long sizeBytes,
                     long createdAtEpochSec, long lastDownloadedEpochSec, long downloadCount) {
+            this(token, originalName, contentType, sizeBytes, createdAtEpochSec,
+                    lastDownloadedEpochSec, downloadCount, null);
+        }
+
+        public Meta(String token, String originalName, String contentType, long sizeBytes,
+                    long createdAtEpochSec, long lastDownloadedEpochSec, long downloadCount, String digest) {
+            this(token, originalName, contentType, sizeBytes, createdAtEpochSec,
+                    lastDownloadedEpochSec, downloadCount, digest, sizeBytes, null);
+        }
+
+        public Meta(String token, String originalName, String contentType, long sizeBytes,
+                    long createdAtEpochSec, long lastDownloadedEpochSec, long downloadCount, String digest,
+                    long storedBytes, String encoding) {
             this.token = token;
             this.originalName = originalName;
             this.contentType = contentType;
@@ -35,38 +82,451 @@ public class Storage {
             this.createdAtEpochSec = createdAtEpochSec;
             this.lastDownloadedEpochSec = lastDownloadedEpochSec;
             this.downloadCount = downloadCount;
+            this.digest = digest;
+            this.storedBytes = storedBytes;
+            this.encoding = encoding;
+        }
+
+        public Meta withDownloads(long lastDownloadedEpochSec, long downloadCount) {
+            return new Meta(token, originalName, contentType, sizeBytes, createdAtEpochSec,
+                    lastDownloadedEpochSec, downloadCount, digest, storedBytes, encoding);
+        }
+
+        public boolean isCompressed() {
+            return encoding != null;
         }
     }
 
+    // Глубина вложенности каталогов: ab/cd/<имя> при 2, плоский каталог при 0
+    public static final int DEFAULT_SHARD_DEPTH = 2;
+    private static final int MAX_SHARD_DEPTH = 4;
+    private static final String LAYOUT_MARKER = ".layout";
+    private static final String TEMP_PREFIX = "upload-";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    // Сжатая копия хранится, только если заметно экономит место
+    private static final double MIN_COMPRESSION_GAIN = 0.9;
+
     private final Path filesDir;
     private final Path metaDir;
+    private final int shardDepth;
+    private final boolean compressAtRest;
+    // Раскладка, в которой данные лежали до миграции; пока она не завершена, поиск проверяет оба места
+    private final int previousShardDepth;
+    private volatile boolean layoutMigrated;
+    // Байты файлов на диске с учётом дедупликации; меняется под блокировкой хранилища
+    private volatile long storedBytes;
+    private final ConcurrentMap<String, Meta> index = new ConcurrentHashMap<>();
+    private final MetaJournal journal;
+    // Число токенов, ссылающихся на каждый блоб (по ключу blobKey); восстанавливается из индекса при старте
+    private final Map<String, Integer> blobRefs = new HashMap<>();
+    // Скачивания, ещё не записанные в журнал; сбрасываются пачкой в flushDownloads()
+    private final ConcurrentMap<String, PendingDownloads> pendingDownloads = new ConcurrentHashMap<>();
+    // Токены, скачанные после последнего сброса; каждый стоит в очереди не больше одного раза
+    private final Queue<String> dirtyDownloads = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Подписчик на изменения индекса. Вызывается под блокировкой хранилища в порядке изменений,
+     * поэтому реализация должна быть быстрой и не обращаться к изменяющим методам Storage
+     */
+    public interface ChangeListener {
+        // previous == null для новой записи
+        void onPut(Meta previous, Meta current);
+        void onRemove(Meta removed);
+    }
 
-    public Storage(Path filesDir, Path metaDir) {
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Сумма ещё не сброшенных в журнал скачиваний по всем токенам
+    private final LongAdder unflushedDownloads = new LongAdder();
+
+    private static final class PendingDownloads {
+        final LongAdder count = new LongAdder();
+        final LongAccumulator lastEpochSec = new LongAccumulator(Math::max, 0);
+        final AtomicBoolean queued = new AtomicBoolean();
+    }
+
+    public Storage(Path filesDir, Path metaDir) throws IOException {
+        this(filesDir, metaDir, DEFAULT_SHARD_DEPTH);
+    }
+
+    public Storage(Path filesDir, Path metaDir, int shardDepth) throws IOException {
+        this(filesDir, metaDir, shardDepth, false);
+    }
+
+    /**
+     * @param compressAtRest хранить файлы текстовых форматов сжатыми gzip
+     */
+    public Storage(Path filesDir, Path metaDir, int shardDepth, boolean compressAtRest) throws IOException {
+        if (shardDepth < 0 || shardDepth > MAX_SHARD_DEPTH) {
+            throw new IllegalArgumentException("Shard depth must be between 0 and " + MAX_SHARD_DEPTH);
+        }
         this.filesDir = Objects.requireNonNull(filesDir);
         this.metaDir = Objects.requireNonNull(metaDir);
+        this.shardDepth = shardDepth;
+        this.compressAtRest = compressAtRest;
+        Integer recorded = readLayoutMarker();
+        // Без маркера данные лежат в исходном плоском каталоге
+        this.previousShardDepth = recorded == null ? 0 : recorded;
+        this.layoutMigrated = recorded != null && recorded == shardDepth;
+        this.journal = new MetaJournal(metaDir.resolve("journal.log"));
+        load();
+        // Общий блоб учитывается один раз
+        Set<String> counted = new HashSet<>();
+        for (Meta m : index.values()) {
+            if (m.digest == null || counted.add(blobKey(m))) storedBytes += m.storedBytes;
+        }
+    }
+
+    /**
+     * Индекс восстанавливается из журнала; при первом запуске журнал собирается
+     * из .meta файлов прежнего формата, после чего они удаляются
+     */
+    private void load() throws IOException {
+        // Недописанные загрузки предыдущего запуска
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(filesDir, TEMP_PREFIX + "*" + TEMP_SUFFIX)) {
+            for (Path p : ds) {
+                Files.deleteIfExists(p);
+            }
+        }
+        if (journal.exists()) {
+            journal.replay(index);
+            if (journal.needsCompaction(index.size())) journal.rewrite(index.values());
+            for (Meta m : index.values()) {
+                if (m.digest != null) blobRefs.merge(blobKey(m), 1, Integer::sum);
+            }
+            return;
+        }
+        List<Path> legacy = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(metaDir, "*.meta")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                String token = name.substring(0, name.length() - 5);
+                index.put(token, readLegacyMeta(token, p));
+                legacy.add(p);
+            }
+        }
+        journal.rewrite(index.values());
+        for (Path p : legacy) {
+            Files.deleteIfExists(p);
+        }
     }
 
+    /**
+     * Сохранение загрузки: данные хешируются на лету, одинаковое содержимое хранится одним блобом.
+     * Текстовые форматы при включённом сжатии пишутся на диск через gzip в том же проходе
+     */
     public String saveUploadedFile(InputStream data, String originalName, String contentType) throws IOException {
-        String token = UUID.randomUUID().toString().replace("-", "");
-        Path filePath = filePath(token);
+        boolean compress = shouldCompress(originalName, contentType);
+        Path tmp = newTempFile();
+        MessageDigest sha256 = newSha256();
+        long size;
         try (BufferedInputStream bis = new BufferedInputStream(data);
-             OutputStream os = new BufferedOutputStream(Files.newOutputStream(filePath))) {
-            long size = bis.transferTo(os);
-            os.flush();
-            long now = Instant.now().getEpochSecond();
-            Meta m = new Meta(token, originalName, contentType == null ? "application/octet-stream" : contentType,
-                    size, now, 0, 0);
+             OutputStream os = new DigestOutputStream(openTempOutput(tmp, compress), sha256)) {
+            size = bis.transferTo(os);
+        } catch (IOException e) {
+            // Обрыв загрузки не должен оставлять недописанный файл
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        return register(tmp, size, sha256.digest(), originalName, contentType, compress);
+    }
+
+    private boolean shouldCompress(String originalName, String contentType) {
+        return compressAtRest && Compression.isCompressible(contentType, originalName);
+    }
+
+    /**
+     * Сжатые файлы пишутся с индексом точек входа, чтобы диапазоны не распаковывались с начала
+     */
+    private static OutputStream openTempOutput(Path tmp, boolean compress) throws IOException {
+        if (compress) {
+            return new SeekableGzip.Output(FileChannel.open(tmp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE), COPY_BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE), COPY_BUFFER_SIZE);
+    }
+
+    /**
+     * Путь для временного файла загрузки; такие файлы, оставшиеся после сбоя, удаляются при старте
+     */
+    public Path newTempFile() {
+        return filesDir.resolve(TEMP_PREFIX + UUID.randomUUID() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Регистрация полностью записанного временного файла (например, собранного из частей).
+     * Содержимое хешируется повторным чтением (при сжатии - в том же проходе пишется сжатая копия);
+     * файл переносится в хранилище или удаляется
+     */
+    public String saveAssembledFile(Path tmp, String originalName, String contentType) throws IOException {
+        boolean compress = shouldCompress(originalName, contentType);
+        Path source = tmp;
+        Path target = compress ? newTempFile() : tmp;
+        MessageDigest sha256 = newSha256();
+        long size;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+             OutputStream compressed = compress ? openTempOutput(target, true) : null) {
+            size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                sha256.update(buffer.duplicate());
+                if (compressed != null) compressed.write(buffer.array(), 0, buffer.limit());
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        if (compress) Files.deleteIfExists(source);
+        return register(target, size, sha256.digest(), originalName, contentType, compress);
+    }
+
+    private String register(Path tmp, long size, byte[] digest, String originalName, String contentType,
+                            boolean compressed) throws IOException {
+        long stored = size;
+        String encoding = null;
+        if (compressed) {
+            try {
+                long compressedSize = Files.size(tmp);
+                if (compressedSize < size * MIN_COMPRESSION_GAIN) {
+                    stored = compressedSize;
+                    encoding = Compression.GZIP;
+                } else {
+                    tmp = decompress(tmp);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        }
+        String token = UUID.randomUUID().toString().replace("-", "");
+        long now = Instant.now().getEpochSecond();
+        Meta m = new Meta(token, originalName, contentType == null ? "application/octet-stream" : contentType,
+                size, now, 0, 0, HexFormat.of().formatHex(digest), stored, encoding);
+        commitBlob(tmp, m);
+        return token;
+    }
+
+    /**
+     * Распаковка временного файла, который сжатие не уменьшило; сжатый файл удаляется
+     */
+    private Path decompress(Path gzipped) throws IOException {
+        Path raw = newTempFile();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(gzipped), COPY_BUFFER_SIZE);
+             OutputStream out = openTempOutput(raw, false)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(raw);
+            throw e;
+        } finally {
+            Files.deleteIfExists(gzipped);
+        }
+        return raw;
+    }
+
+    /**
+     * Временный файл становится блобом, если такого содержимого ещё нет, иначе удаляется
+     */
+    private synchronized void commitBlob(Path tmp, Meta m) throws IOException {
+        String key = blobKey(m);
+        Path blob = blobPath(key);
+        boolean created = false;
+        try {
+            if (blobRefs.containsKey(key) && Files.exists(blob)) {
+                Files.delete(tmp);
+            } else {
+                blob = shardedPath(key + ".blob", shardDepth);
+                Files.createDirectories(blob.getParent());
+                Files.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                created = true;
+                storedBytes += m.storedBytes;
+            }
             writeMeta(m);
-            return token;
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            if (created && !blobRefs.containsKey(key)) {
+                Files.deleteIfExists(blob);
+                storedBytes -= m.storedBytes;
+            }
+            throw e;
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Path filePath(String token) {
+        Meta m = index.get(token);
+        return m != null && m.digest != null ? blobPath(blobKey(m)) : locate(token + ".bin");
+    }
+    public Path blobPath(String key) { return locate(key + ".blob"); }
+
+    /**
+     * Имя блоба: хеш исходного содержимого и сжатие, чтобы сжатая и несжатая копии не совпадали
+     */
+    private static String blobKey(Meta m) {
+        if (m.digest == null) return null;
+        return m.encoding == null ? m.digest : m.digest + "." + m.encoding;
+    }
+
+    /**
+     * Открытие файла токена на чтение. Если миграция перенесла файл между поиском
+     * и открытием, путь определяется повторно
+     */
+    public FileChannel openFile(String token) throws IOException {
+        try {
+            return FileChannel.open(filePath(token), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            if (layoutMigrated) throw e;
+            return FileChannel.open(filePath(token), StandardOpenOption.READ);
         }
     }
 
-    public Path filePath(String token) { return filesDir.resolve(token + ".bin"); }
+    private Path shardedPath(String name, int depth) {
+        Path dir = filesDir;
+        for (int i = 0; i < depth && name.length() > (i + 1) * 2; i++) {
+            dir = dir.resolve(name.substring(i * 2, i * 2 + 2));
+        }
+        return dir.resolve(name);
+    }
+
+    /**
+     * Путь в текущей раскладке; до окончания миграции файл может оставаться на прежнем месте
+     */
+    private Path locate(String name) {
+        Path current = shardedPath(name, shardDepth);
+        if (layoutMigrated || previousShardDepth == shardDepth || Files.exists(current)) return current;
+        Path previous = shardedPath(name, previousShardDepth);
+        return Files.exists(previous) ? previous : current;
+    }
+
+    public boolean isLayoutMigrated() { return layoutMigrated; }
+
+    /**
+     * Перенос файлов в текущую раскладку каталогов. Каждый файл переносится под
+     * блокировкой хранилища, поэтому загрузки и удаления не видят промежуточного состояния;
+     * чтение в это время находит файл по старому или новому пути. Возвращает число перенесённых файлов
+     */
+    public int migrateLayout() throws IOException {
+        if (layoutMigrated) return 0;
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(filesDir)) {
+            files = walk.filter(p -> {
+                String name = p.getFileName().toString();
+                return (name.endsWith(".blob") || name.endsWith(".bin")) && Files.isRegularFile(p);
+            }).collect(Collectors.toList());
+        }
+        int moved = 0;
+        for (Path p : files) {
+            Path target = shardedPath(p.getFileName().toString(), shardDepth);
+            if (p.equals(target)) continue;
+            synchronized (this) {
+                // Файл мог быть удалён, пока шёл обход
+                if (!Files.exists(p)) continue;
+                Files.createDirectories(target.getParent());
+                Files.move(p, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            moved++;
+        }
+        removeEmptyShardDirectories();
+        writeLayoutMarker();
+        layoutMigrated = true;
+        return moved;
+    }
+
+    private void removeEmptyShardDirectories() throws IOException {
+        List<Path> dirs;
+        try (Stream<Path> walk = Files.walk(filesDir)) {
+            dirs = walk.filter(p -> !p.equals(filesDir) && Files.isDirectory(p)).collect(Collectors.toList());
+        }
+        // Вложенные каталоги идут в обходе позже родительских
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            // Под блокировкой, как и commitBlob: иначе каталог, только что созданный для нового блоба,
+            // может быть удалён до переноса файла в него
+            synchronized (this) {
+                try {
+                    Files.deleteIfExists(dirs.get(i));
+                } catch (DirectoryNotEmptyException ignored) {
+                    // В каталоге остались файлы
+                }
+            }
+        }
+    }
+
+    private Integer readLayoutMarker() throws IOException {
+        Path marker = filesDir.resolve(LAYOUT_MARKER);
+        if (!Files.exists(marker)) return null;
+        String value = Files.readString(marker, StandardCharsets.UTF_8).trim();
+        if (!value.startsWith("shardDepth=")) return null;
+        try {
+            return Integer.parseInt(value.substring("shardDepth=".length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void writeLayoutMarker() throws IOException {
+        Path tmp = filesDir.resolve(LAYOUT_MARKER + ".tmp");
+        Files.writeString(tmp, "shardDepth=" + shardDepth + "\n", StandardCharsets.UTF_8);
+        Files.move(tmp, filesDir.resolve(LAYOUT_MARKER),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    // Расположение метаданных до перехода на журнал, используется только при импорте
     public Path metaPath(String token) { return metaDir.resolve(token + ".meta"); }
 
-    public Meta readMeta(String token) throws IOException {
-        Path p = metaPath(token);
-        if (!Files.exists(p)) return null;
+    /**
+     * Регистрация подписчика: сначала он получает все текущие записи как новые
+     */
+    public synchronized void addListener(ChangeListener listener) {
+        for (Meta m : index.values()) {
+            listener.onPut(null, m);
+        }
+        listeners.add(listener);
+    }
+
+    public long storedBytes() {
+        return storedBytes;
+    }
+
+    public long unflushedDownloads() {
+        return unflushedDownloads.sum();
+    }
+
+    private void firePut(Meta previous, Meta current) {
+        for (ChangeListener l : listeners) {
+            l.onPut(previous, current);
+        }
+    }
+
+    private void fireRemove(Meta removed) {
+        for (ChangeListener l : listeners) {
+            l.onRemove(removed);
+        }
+    }
+
+    public Meta readMeta(String token) {
+        Meta m = index.get(token);
+        return m == null ? null : withPendingDownloads(m);
+    }
+
+    private Meta withPendingDownloads(Meta m) {
+        PendingDownloads p = pendingDownloads.get(m.token);
+        if (p == null) return m;
+        long n = p.count.sum();
+        long last = Math.max(m.lastDownloadedEpochSec, p.lastEpochSec.get());
+        if (n == 0 && last == m.lastDownloadedEpochSec) return m;
+        return m.withDownloads(last, m.downloadCount + n);
+    }
+
+    private static Meta readLegacyMeta(String token, Path p) throws IOException {
         List<String> lines = Files.readAllLines(p, StandardCharsets.UTF_8);
         String originalName = null, contentType = null;
         long size = 0, created = 0, last = 0, count = 0;
@@ -90,50 +550,155 @@ public class Storage {
         return new Meta(token, originalName, contentType, size, created, last, count);
     }
 
-    public void touchDownload(String token) throws IOException {
-        Meta m = readMeta(token);
-        if (m == null) return;
-        Meta updated = new Meta(m.token, m.originalName, m.contentType, m.sizeBytes,
-                m.createdAtEpochSec, Instant.now().getEpochSecond(), m.downloadCount + 1);
-        writeMeta(updated);
-    }
-
-    public void writeMeta(Meta m) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        sb.append("token=").append(m.token).append('\n');
-        sb.append("originalName=").append(m.originalName == null ? "" : m.originalName).append('\n');
-        sb.append("contentType=").append(m.contentType == null ? "" : m.contentType).append('\n');
-        sb.append("sizeBytes=").append(m.sizeBytes).append('\n');
-        sb.append("createdAtEpochSec=").append(m.createdAtEpochSec).append('\n');
-        sb.append("lastDownloadedEpochSec=").append(m.lastDownloadedEpochSec).append('\n');
-        sb.append("downloadCount=").append(m.downloadCount).append('\n');
-        Files.writeString(metaPath(m.token), sb.toString(), StandardCharsets.UTF_8);
-    }
-
-    public List<Meta> listMetas() throws IOException {
-        List<Meta> list = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(metaDir, "*.meta")) {
-            for (Path p : ds) {
-                String name = p.getFileName().toString();
-                String token = name.substring(0, name.length() - 5);
-                Meta m = readMeta(token);
-                if (m != null) list.add(m);
+    /**
+     * Учёт скачивания без блокировок и дискового ввода-вывода
+     */
+    public void touchDownload(String token) {
+        PendingDownloads p = pendingDownloads.get(token);
+        if (p == null) {
+            if (!index.containsKey(token)) return;
+            p = pendingDownloads.computeIfAbsent(token, t -> new PendingDownloads());
+        }
+        p.count.increment();
+        unflushedDownloads.increment();
+        p.lastEpochSec.accumulate(System.currentTimeMillis() / 1000);
+        if (p.queued.compareAndSet(false, true)) dirtyDownloads.add(token);
+    }
+
+    /**
+     * Запись накопленных счётчиков скачиваний в журнал одной пачкой
+     * Обходятся только токены, скачанные после прошлого сброса
+     */
+    public synchronized int flushDownloads() throws IOException {
+        List<Meta> batch = new ArrayList<>();
+        List<Long> applied = new ArrayList<>();
+        List<PendingDownloads> sources = new ArrayList<>();
+        // Токены, скачанные во время обхода, снова встают в очередь и ждут следующего сброса
+        for (int i = dirtyDownloads.size(); i > 0; i--) {
+            String token = dirtyDownloads.poll();
+            if (token == null) break;
+            PendingDownloads p = pendingDownloads.get(token);
+            if (p == null) continue;
+            p.queued.set(false);
+            Meta m = index.get(token);
+            if (m == null) {
+                if (pendingDownloads.remove(token, p)) unflushedDownloads.add(-p.count.sum());
+                continue;
             }
+            long n = p.count.sum();
+            long last = Math.max(m.lastDownloadedEpochSec, p.lastEpochSec.get());
+            if (n == 0 && last == m.lastDownloadedEpochSec) continue;
+            batch.add(m.withDownloads(last, m.downloadCount + n));
+            applied.add(n);
+            sources.add(p);
+        }
+        if (batch.isEmpty()) return 0;
+        try {
+            journal.appendPuts(batch);
+        } catch (IOException e) {
+            for (Meta m : batch) requeueDownloads(m.token);
+            throw e;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Meta m = batch.get(i);
+            Meta previous = index.put(m.token, m);
+            // Скачивания, пришедшие во время сброса, остаются в счётчике до следующего раза
+            sources.get(i).count.add(-applied.get(i));
+            unflushedDownloads.add(-applied.get(i));
+            firePut(previous, m);
+        }
+        return batch.size();
+    }
+
+    private void requeueDownloads(String token) {
+        PendingDownloads p = pendingDownloads.get(token);
+        if (p != null && p.queued.compareAndSet(false, true)) dirtyDownloads.add(token);
+    }
+
+    public synchronized void writeMeta(Meta m) throws IOException {
+        journal.appendPut(m);
+        Meta old = index.put(m.token, m);
+        firePut(old, m);
+        String oldKey = old == null ? null : blobKey(old);
+        String key = blobKey(m);
+        if (!Objects.equals(oldKey, key)) {
+            if (key != null) blobRefs.merge(key, 1, Integer::sum);
+            if (old != null) releaseBlob(oldKey, old.storedBytes);
+        }
+    }
+
+    /**
+     * Блоб удаляется вместе с последней ссылкой на него
+     */
+    private void releaseBlob(String key, long size) throws IOException {
+        if (key == null) return;
+        Integer refs = blobRefs.get(key);
+        if (refs == null || refs <= 1) {
+            blobRefs.remove(key);
+            Files.deleteIfExists(blobPath(key));
+            storedBytes -= size;
+        } else {
+            blobRefs.put(key, refs - 1);
+        }
+    }
+
+    /**
+     * Записи индекса в том виде, в каком они переданы подписчикам, без несброшенных скачиваний
+     */
+    public Collection<Meta> indexedMetas() {
+        return Collections.unmodifiableCollection(index.values());
+    }
+
+    public List<Meta> listMetas() {
+        List<Meta> list = new ArrayList<>(index.size());
+        for (Meta m : index.values()) {
+            list.add(withPendingDownloads(m));
         }
         return list;
     }
 
-    public int deleteStale(Duration ttl) throws IOException {
-        long now = Instant.now().getEpochSecond();
-        int deleted = 0;
-        for (Meta m : listMetas()) {
-            if (now - m.lastDownloadedEpochSec >= ttl.toSeconds()) {
-                Files.deleteIfExists(filePath(m.token));
-                Files.deleteIfExists(metaPath(m.token));
-                deleted++;
-            }
+    /**
+     * Удаление файла и его метаданных. Возвращает false, если токен неизвестен
+     */
+    public synchronized boolean delete(String token) throws IOException {
+        Meta m = index.get(token);
+        if (m == null) return false;
+        journal.appendDelete(token);
+        index.remove(token);
+        PendingDownloads pending = pendingDownloads.remove(token);
+        if (pending != null) unflushedDownloads.add(-pending.count.sum());
+        fireRemove(m);
+        if (m.digest != null) {
+            releaseBlob(blobKey(m), m.storedBytes);
+        } else {
+            Files.deleteIfExists(locate(token + ".bin"));
+            storedBytes -= m.storedBytes;
         }
-        return deleted;
+        return true;
+    }
+
+    /**
+     * Удаление файла, если к нему не обращались после cutoffEpochSec (ни загрузки, ни скачивания,
+     * включая ещё не сброшенные в журнал). Проверка и удаление выполняются под одной блокировкой
+     */
+    public synchronized boolean deleteIfIdleSince(String token, long cutoffEpochSec) throws IOException {
+        Meta m = readMeta(token);
+        if (m == null || Math.max(m.createdAtEpochSec, m.lastDownloadedEpochSec) > cutoffEpochSec) return false;
+        return delete(token);
+    }
+
+    /**
+     * Сжатие журнала, если в нём накопилось слишком много устаревших записей
+     */
+    public synchronized void compactJournal() throws IOException {
+        if (journal.needsCompaction(index.size())) {
+            journal.rewrite(index.values());
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        flushDownloads();
+        journal.close();
     }
 
     private static long parseLong(String s) {
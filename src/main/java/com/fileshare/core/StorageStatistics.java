@@ -0,0 +1,176 @@
+package com.fileshare.core;
+
+import com.fileshare.core.Storage.Meta;
+import com.fileshare.utils.JsonUtils;
+import com.fileshare.utils.LogLinearHistogram;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Статистика хранилища, обновляемая по событиям Storage
+ * Суммы и распределения меняются при каждой загрузке, удалении и сбросе счётчиков скачиваний,
+ * поэтому снимок строится за время, не зависящее от числа файлов. Точные min/max берутся
+ * с концов отсортированных индексов SortedFileIndex: O(log n), без отдельных копий значений
+ */
+public class StorageStatistics implements Storage.ChangeListener {
+    private static final long HOUR = 3600;
+
+    public record Format(String format, long count, long size) {}
+
+    public record Snapshot(long totalFiles, long totalSize, long totalDownloads,
+                           long minSize, long maxSize, long medianSize, long p90Size, long p99Size,
+                           long minDownloads, long maxDownloads, long medianDownloads,
+                           long p90Downloads, long p99Downloads,
+                           long oldestEpochSec, long newestEpochSec, long medianAgeSec,
+                           List<Format> formats) {}
+
+    private final Storage storage;
+    // Источник точных min/max
+    private final SortedFileIndex sorted;
+    private final LogLinearHistogram sizes = new LogLinearHistogram();
+    private final LogLinearHistogram downloads = new LogLinearHistogram();
+    // Время создания с точностью до часа: час -> число файлов
+    private final TreeMap<Long, long[]> createdHours = new TreeMap<>();
+    // Расширение -> {число файлов, суммарный размер}
+    private final Map<String, long[]> formats = new HashMap<>();
+
+    private long files, totalSize, totalDownloads;
+
+    public StorageStatistics(Storage storage, SortedFileIndex sorted) {
+        this.storage = storage;
+        this.sorted = sorted;
+        storage.addListener(this);
+    }
+
+    @Override
+    public synchronized void onPut(Meta previous, Meta current) {
+        if (previous == null) {
+            add(current);
+            return;
+        }
+        if (previous.sizeBytes != current.sizeBytes
+                || previous.createdAtEpochSec != current.createdAtEpochSec
+                || !JsonUtils.getFileExtension(previous.originalName).equals(JsonUtils.getFileExtension(current.originalName))) {
+            remove(previous);
+            add(current);
+            return;
+        }
+        // Обычный случай: изменился только счётчик скачиваний
+        if (previous.downloadCount != current.downloadCount) {
+            downloads.remove(previous.downloadCount);
+            downloads.add(current.downloadCount);
+            totalDownloads += current.downloadCount - previous.downloadCount;
+        }
+    }
+
+    @Override
+    public synchronized void onRemove(Meta removed) {
+        remove(removed);
+    }
+
+    private void add(Meta m) {
+        files++;
+        totalSize += m.sizeBytes;
+        totalDownloads += m.downloadCount;
+        sizes.add(m.sizeBytes);
+        downloads.add(m.downloadCount);
+        increment(createdHours, Math.floorDiv(m.createdAtEpochSec, HOUR));
+        long[] format = formats.computeIfAbsent(JsonUtils.getFileExtension(m.originalName), f -> new long[2]);
+        format[0]++;
+        format[1] += m.sizeBytes;
+    }
+
+    private void remove(Meta m) {
+        files--;
+        totalSize -= m.sizeBytes;
+        totalDownloads -= m.downloadCount;
+        sizes.remove(m.sizeBytes);
+        downloads.remove(m.downloadCount);
+        decrement(createdHours, Math.floorDiv(m.createdAtEpochSec, HOUR));
+        String ext = JsonUtils.getFileExtension(m.originalName);
+        long[] format = formats.get(ext);
+        if (format != null) {
+            format[1] -= m.sizeBytes;
+            if (--format[0] <= 0) formats.remove(ext);
+        }
+    }
+
+    private static void increment(TreeMap<Long, long[]> values, long value) {
+        values.computeIfAbsent(value, v -> new long[1])[0]++;
+    }
+
+    private static void decrement(TreeMap<Long, long[]> values, long value) {
+        long[] count = values.get(value);
+        if (count != null && --count[0] <= 0) values.remove(value);
+    }
+
+    public synchronized long totalFiles() {
+        return files;
+    }
+
+    public synchronized long totalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Все скачивания, включая ещё не сброшенные в журнал
+     */
+    public synchronized long totalDownloads() {
+        return totalDownloads + storage.unflushedDownloads();
+    }
+
+    public synchronized Snapshot snapshot() {
+        long unflushed = storage.unflushedDownloads();
+        if (files <= 0) {
+            return new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, List.of());
+        }
+        Meta smallest = sorted.first(SortedFileIndex.SortField.SIZE);
+        Meta largest = sorted.last(SortedFileIndex.SortField.SIZE);
+        Meta leastDownloaded = sorted.first(SortedFileIndex.SortField.DOWNLOADS);
+        Meta mostDownloaded = sorted.last(SortedFileIndex.SortField.DOWNLOADS);
+        Meta oldestFile = sorted.first(SortedFileIndex.SortField.CREATED);
+        Meta newestFile = sorted.last(SortedFileIndex.SortField.CREATED);
+        // Индекс обновляется вне блокировки статистики и мог успеть опустеть
+        if (smallest == null || largest == null || leastDownloaded == null || mostDownloaded == null
+                || oldestFile == null || newestFile == null) {
+            return new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, List.of());
+        }
+        long minSize = smallest.sizeBytes, maxSize = largest.sizeBytes;
+        long minDownloads = leastDownloaded.downloadCount, maxDownloads = mostDownloaded.downloadCount;
+        long oldest = oldestFile.createdAtEpochSec, newest = newestFile.createdAtEpochSec;
+        long now = System.currentTimeMillis() / 1000;
+        List<Format> formatList = new ArrayList<>(formats.size());
+        for (Map.Entry<String, long[]> e : formats.entrySet()) {
+            formatList.add(new Format(e.getKey(), e.getValue()[0], e.getValue()[1]));
+        }
+        formatList.sort(Comparator.comparingLong(Format::count).reversed());
+        return new Snapshot(files, totalSize, totalDownloads + unflushed,
+                minSize, maxSize, clamp(sizes.quantile(0.5), minSize, maxSize),
+                clamp(sizes.quantile(0.9), minSize, maxSize), clamp(sizes.quantile(0.99), minSize, maxSize),
+                minDownloads, maxDownloads, clamp(downloads.quantile(0.5), minDownloads, maxDownloads),
+                clamp(downloads.quantile(0.9), minDownloads, maxDownloads),
+                clamp(downloads.quantile(0.99), minDownloads, maxDownloads),
+                oldest, newest, Math.max(0, now - medianCreated(oldest, newest)), formatList);
+    }
+
+    /**
+     * Медиана времени создания по часовым корзинам; соответствует медиане возраста
+     */
+    private long medianCreated(long oldest, long newest) {
+        long rank = files - 1 - files / 2;
+        long seen = 0;
+        for (Map.Entry<Long, long[]> e : createdHours.entrySet()) {
+            seen += e.getValue()[0];
+            if (seen > rank) return clamp(e.getKey() * HOUR + HOUR / 2, oldest, newest);
+        }
+        return newest;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
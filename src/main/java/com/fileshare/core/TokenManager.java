@@ -1,79 +1,199 @@
 package com.fileshare.core;
 
+import com.fileshare.utils.TimingWheel;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.SecureRandom;
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Менеджер токенов авторизации
- * Генерирует, валидирует и управляет токенами доступа
+ * Генерирует, валидирует и управляет токенами доступа.
+ * Срок действия хранится в миллисекундах эпохи, поэтому проверка токена не выделяет память;
+ * просроченные токены удаляются колесом таймеров без обхода всей таблицы.
+ * Таблица периодически сохраняется в снимок и загружается при старте, так что перезапуск
+ * сервера не заставляет клиентов заново авторизоваться
  */
-public class TokenManager {
+public class TokenManager implements TokenService {
+    private static final String SNAPSHOT_HEADER = "fileshare-tokens\t1";
+    private static final long WHEEL_TICK_MILLIS = 1000;
+
     private final ConcurrentMap<String, TokenInfo> tokens = new ConcurrentHashMap<>();
     private final SecureRandom random = new SecureRandom();
-    private final long tokenExpirationHours;
-    
+    private final long tokenExpirationMillis;
+    private final TimingWheel<TokenInfo> expiry = new TimingWheel<>(WHEEL_TICK_MILLIS, System.currentTimeMillis());
+    private final Path snapshot;
+    // Изменения таблицы; снимок пишется, только если с прошлого раза что-то изменилось
+    private final AtomicLong modifications = new AtomicLong();
+    private long savedModifications;
+
     public TokenManager(long tokenExpirationHours) {
-        this.tokenExpirationHours = tokenExpirationHours;
+        this.tokenExpirationMillis = tokenExpirationHours * 3600_000L;
+        this.snapshot = null;
+    }
+
+    /**
+     * @param snapshot файл снимка таблицы токенов; если он существует, токены загружаются из него
+     */
+    public TokenManager(long tokenExpirationHours, Path snapshot) throws IOException {
+        this.tokenExpirationMillis = tokenExpirationHours * 3600_000L;
+        this.snapshot = snapshot;
+        if (Files.exists(snapshot)) loadSnapshot();
     }
-    
+
     // Генерация нового токена для пользователя
     public String generateToken(String username) {
         // Генерируем случайный токен
         byte[] randomBytes = new byte[32];
         random.nextBytes(randomBytes);
         String token = Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
-        
+
         // Сохраняем информацию о токене
-        TokenInfo tokenInfo = new TokenInfo(username, Instant.now().plusSeconds(tokenExpirationHours * 3600));
-        tokens.put(token, tokenInfo);
-        
+        add(new TokenInfo(token, username, System.currentTimeMillis() + tokenExpirationMillis));
         return token;
     }
-    
+
     // Проверка валидности токена
     public boolean validateToken(String token) {
         if (token == null || token.isBlank()) {
             return false;
         }
-        
+
         TokenInfo tokenInfo = tokens.get(token);
         if (tokenInfo == null) {
             return false;
         }
-        
+
         // Проверяем срок действия токена
-        if (Instant.now().isAfter(tokenInfo.expirationTime)) {
-            tokens.remove(token); // Удаляем просроченный токен
+        if (System.currentTimeMillis() > tokenInfo.expiresAtMillis) {
+            if (tokens.remove(token, tokenInfo)) modifications.incrementAndGet(); // Удаляем просроченный токен
             return false;
         }
-        
+
         return true;
     }
-    
+
     public String getUsername(String token) {
         TokenInfo tokenInfo = tokens.get(token);
-        return tokenInfo != null ? tokenInfo.username : null;
+        return tokenInfo != null && System.currentTimeMillis() <= tokenInfo.expiresAtMillis
+                ? tokenInfo.username : null;
     }
-    
+
     public void revokeToken(String token) {
-        tokens.remove(token);
+        // Запись в колесе остаётся и при истечении будет пропущена
+        if (tokens.remove(token) != null) modifications.incrementAndGet();
+    }
+
+    public int activeTokens() {
+        return tokens.size();
     }
-    
-    public void cleanupExpiredTokens() {
-        Instant now = Instant.now();
-        tokens.entrySet().removeIf(entry -> now.isAfter(entry.getValue().expirationTime));
+
+    /**
+     * Удаление токенов, срок которых истёк с прошлого вызова
+     *
+     * @return число удалённых токенов
+     */
+    public int cleanupExpiredTokens() {
+        int[] removed = new int[1];
+        synchronized (expiry) {
+            expiry.advance(System.currentTimeMillis(), info -> {
+                // Токен мог быть отозван раньше срока
+                if (tokens.remove(info.token, info)) removed[0]++;
+            });
+        }
+        if (removed[0] > 0) modifications.addAndGet(removed[0]);
+        return removed[0];
+    }
+
+    /**
+     * Запись снимка таблицы токенов: новый файл пишется рядом и атомарно подменяет старый.
+     * Файл содержит действующие токены, поэтому доступен только владельцу
+     */
+    public synchronized void saveSnapshot() throws IOException {
+        if (snapshot == null) return;
+        long version = modifications.get();
+        if (version == savedModifications && Files.exists(snapshot)) return;
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tmp);
+        }
+        long now = System.currentTimeMillis();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE);
+             Writer w = Channels.newWriter(ch, StandardCharsets.UTF_8)) {
+            w.write(SNAPSHOT_HEADER + "\n");
+            for (TokenInfo info : tokens.values()) {
+                if (now > info.expiresAtMillis) continue;
+                w.write(info.token + "\t" + URLEncoder.encode(info.username, StandardCharsets.UTF_8)
+                        + "\t" + info.expiresAtMillis + "\n");
+            }
+            w.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        savedModifications = version;
+    }
+
+    private void loadSnapshot() throws IOException {
+        List<TokenInfo> loaded = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+            if (!SNAPSHOT_HEADER.equals(reader.readLine())) {
+                throw new IOException("Unsupported token snapshot format: " + snapshot);
+            }
+            long now = System.currentTimeMillis();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 3) continue;
+                long expiresAt;
+                try {
+                    expiresAt = Long.parseLong(fields[2]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (now > expiresAt) continue;
+                loaded.add(new TokenInfo(fields[0], URLDecoder.decode(fields[1], StandardCharsets.UTF_8), expiresAt));
+            }
+        }
+        for (TokenInfo info : loaded) add(info);
+        savedModifications = modifications.get();
     }
-    
+
+    private void add(TokenInfo info) {
+        tokens.put(info.token, info);
+        synchronized (expiry) {
+            expiry.schedule(info, info.expiresAtMillis);
+        }
+        modifications.incrementAndGet();
+    }
+
     private static class TokenInfo {
+        final String token;
         final String username;
-        final Instant expirationTime;
-        
-        TokenInfo(String username, Instant expirationTime) {
+        final long expiresAtMillis;
+
+        TokenInfo(String token, String username, long expiresAtMillis) {
+            this.token = token;
             this.username = username;
-            this.expirationTime = expirationTime;
+            this.expiresAtMillis = expiresAtMillis;
         }
     }
 }
@@ -0,0 +1,23 @@
+package com.fileshare.core;
+
+/**
+ * Выдача и проверка токенов доступа
+ * TokenManager хранит токены в памяти узла, SignedTokenManager выдаёт подписанные токены,
+ * которые проверяются на любом узле с тем же ключом
+ */
+public interface TokenService {
+    String generateToken(String username);
+
+    boolean validateToken(String token);
+
+    String getUsername(String token);
+
+    void revokeToken(String token);
+
+    /**
+     * Удаление просроченных записей
+     *
+     * @return число удалённых записей
+     */
+    int cleanupExpiredTokens();
+}
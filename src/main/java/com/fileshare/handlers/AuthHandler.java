@@ -1,6 +1,6 @@
 package com.fileshare.handlers;
 
-import com.fileshare.core.TokenManager;
+import com.fileshare.core.TokenService;
 import com.fileshare.utils.HttpUtils;
 import com.fileshare.utils.JsonUtils;
 import com.sun.net.httpserver.HttpExchange;
@@ -15,9 +15,9 @@ import java.util.Scanner;
  * Принимает имя пользователя и возвращает токен доступа
  */
 public class AuthHandler implements HttpHandler {
-    private final TokenManager tokenManager;
+    private final TokenService tokenManager;
     
-    public AuthHandler(TokenManager tokenManager) {
+    public AuthHandler(TokenService tokenManager) {
         this.tokenManager = tokenManager;
     }
     
@@ -50,7 +50,10 @@ public class AuthHandler implements HttpHandler {
             // Отправляем ответ с токеном
             String response = "{\"token\":\"" + token + "\",\"username\":\"" + username.trim() + "\"}";
             HttpUtils.sendJsonResponseWithCors(exchange, 200, response);
-            
+
+        } catch (IllegalArgumentException e) {
+            // Имя не помещается в подписанный токен
+            HttpUtils.sendJsonResponseWithCors(exchange, 400, JsonUtils.createErrorJson(e.getMessage()));
         } catch (Exception e) {
             HttpUtils.sendJsonResponseWithCors(exchange, 500, JsonUtils.createErrorJson("Internal server error"));
         }
@@ -0,0 +1,166 @@
+package com.fileshare.handlers;
+
+import com.fileshare.core.Auth;
+import com.fileshare.services.UploadSessions;
+import com.fileshare.utils.HttpUtils;
+import com.fileshare.utils.JsonUtils;
+import com.fileshare.utils.JsonWriter;
+import com.fileshare.utils.MimeTypeDetector;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+/**
+ * Обработчик поблочной загрузки
+ * POST /api/uploads?name=&size=[&chunkSize=&contentType=] - создание сессии,
+ * PUT /api/uploads/{id}/chunks/{n} - часть n, GET /api/uploads/{id} - полученные части,
+ * POST /api/uploads/{id}/complete - завершение, DELETE /api/uploads/{id} - отмена
+ */
+public class ChunkedUploadHandler implements HttpHandler {
+    private static final String PREFIX = "/api/uploads";
+
+    private final UploadSessions sessions;
+    private final Auth auth;
+    private final int defaultChunkSize;
+
+    public ChunkedUploadHandler(UploadSessions sessions, Auth auth, int defaultChunkSize) {
+        this.sessions = sessions;
+        this.auth = auth;
+        this.defaultChunkSize = defaultChunkSize;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            if (!auth.checkUpload(exchange)) {
+                HttpUtils.sendUnauthorized(exchange);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String[] parts = path.length() > PREFIX.length()
+                    ? path.substring(PREFIX.length() + 1).split("/") : new String[0];
+            String method = exchange.getRequestMethod().toUpperCase();
+            if (parts.length == 0 || parts[0].isEmpty()) {
+                if (method.equals("POST")) {
+                    create(exchange);
+                } else {
+                    HttpUtils.sendMethodNotAllowed(exchange);
+                }
+                return;
+            }
+
+            UploadSessions.Session session = sessions.get(parts[0]);
+            // Чужая сессия неотличима от несуществующей
+            if (session == null || (auth.isEnabled() && !session.isOwnedBy(auth.getUsername(exchange)))) {
+                HttpUtils.sendJsonResponse(exchange, 404, JsonUtils.createErrorJson("upload session not found"));
+                return;
+            }
+            if (parts.length == 1 && method.equals("GET")) {
+                sendStatus(exchange, session);
+            } else if (parts.length == 1 && method.equals("DELETE")) {
+                sessions.abort(session);
+                exchange.sendResponseHeaders(204, -1);
+            } else if (parts.length == 3 && parts[1].equals("chunks") && method.equals("PUT")) {
+                writeChunk(exchange, session, parts[2], body);
+            } else if (parts.length == 2 && parts[1].equals("complete") && method.equals("POST")) {
+                complete(exchange, session);
+            } else {
+                HttpUtils.sendNotFound(exchange);
+            }
+        } catch (IllegalArgumentException e) {
+            HttpUtils.sendJsonResponse(exchange, 400, JsonUtils.createErrorJson(e.getMessage()));
+        } catch (IllegalStateException e) {
+            HttpUtils.sendJsonResponse(exchange, 409, JsonUtils.createErrorJson(e.getMessage()));
+        } catch (UploadSessions.InsufficientSpaceException e) {
+            HttpUtils.sendJsonResponse(exchange, 507, JsonUtils.createErrorJson(e.getMessage()));
+        } catch (UploadSessions.TooManySessionsException e) {
+            HttpUtils.sendJsonResponse(exchange, 429, JsonUtils.createErrorJson(e.getMessage()));
+        }
+    }
+
+    private void create(HttpExchange exchange) throws IOException {
+        Map<String, String> params = HttpUtils.queryParams(exchange);
+        String name = params.get("name");
+        if (name == null || name.isBlank()) throw new IllegalArgumentException("name is required");
+        long size = parseLong(params.get("size"), "size");
+        String chunkParam = params.get("chunkSize");
+        int chunkSize = chunkParam == null ? defaultChunkSize : (int) Math.min(Integer.MAX_VALUE, parseLong(chunkParam, "chunkSize"));
+        String contentType = params.get("contentType");
+        if (contentType == null || contentType.isBlank()) contentType = MimeTypeDetector.guess(name);
+
+        String owner = auth.getUsername(exchange);
+        UploadSessions.Session session = sessions.create(owner, clientKey(exchange, owner), name, contentType, size, chunkSize);
+        exchange.getResponseHeaders().set("Location", PREFIX + "/" + session.id);
+        try (JsonWriter json = new JsonWriter(exchange, 201)) {
+            json.beginObject()
+                .field("uploadId", session.id)
+                .field("size", session.size)
+                .field("chunkSize", session.chunkSize)
+                .field("chunkCount", session.chunkCount)
+                .endObject();
+        }
+    }
+
+    private void writeChunk(HttpExchange exchange, UploadSessions.Session session, String indexParam, InputStream body)
+            throws IOException {
+        long index = parseLong(indexParam, "chunk index");
+        if (index > Integer.MAX_VALUE) throw new IllegalArgumentException("chunk index is too large");
+        sessions.writeChunk(session, (int) index, body);
+        try (JsonWriter json = new JsonWriter(exchange, 200)) {
+            json.beginObject()
+                .field("chunk", index)
+                .field("receivedChunks", session.receivedCount())
+                .field("chunkCount", session.chunkCount)
+                .endObject();
+        }
+    }
+
+    private void complete(HttpExchange exchange, UploadSessions.Session session) throws IOException {
+        String token = sessions.complete(session);
+        try (JsonWriter json = new JsonWriter(exchange, 200)) {
+            json.beginObject()
+                .field("token", token)
+                .field("url", HttpUtils.downloadUrl(exchange, token))
+                .endObject();
+        }
+    }
+
+    // Лимит сессий ведётся по пользователю, а без авторизации - по IP-адресу
+    private static String clientKey(HttpExchange exchange, String owner) {
+        if (owner != null) return "user:" + owner;
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return "ip:" + (remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString());
+    }
+
+    private static void sendStatus(HttpExchange exchange, UploadSessions.Session session) throws IOException {
+        try (JsonWriter json = new JsonWriter(exchange, 200)) {
+            json.beginObject()
+                .field("uploadId", session.id)
+                .field("name", session.name)
+                .field("size", session.size)
+                .field("chunkSize", session.chunkSize)
+                .field("chunkCount", session.chunkCount)
+                .field("receivedChunks", session.receivedCount());
+            // Отрезки полученных частей: [[0,4],[6,6]]
+            json.name("received").beginArray();
+            for (int[] range : session.receivedRanges()) {
+                json.beginArray().value(range[0]).value(range[1]).endArray();
+            }
+            json.endArray().endObject();
+        }
+    }
+
+    private static long parseLong(String value, String name) {
+        if (value == null) throw new IllegalArgumentException(name + " is required");
+        try {
+            long v = Long.parseLong(value.trim());
+            if (v < 0) throw new IllegalArgumentException(name + " must not be negative");
+            return v;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+}
@@ -7,7 +7,6 @@ import com.fileshare.utils.PathUtils;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
-import java.nio.file.Files;
 
 /**
  * Обработчик удаления файлов
@@ -33,20 +32,14 @@ public class FileDeleteHandler implements HttpHandler {
         }
         
         try {
-            if (storage.readMeta(token) == null) {
+            if (!storage.delete(token)) {
                 HttpUtils.sendJsonResponse(exchange, 404, JsonUtils.createErrorJson("File not found"));
                 return;
             }
             
-            deleteFileAndMeta(token);
             HttpUtils.sendJsonResponse(exchange, 200, "{\"success\":true}");
         } catch (Exception e) {
             HttpUtils.sendJsonResponse(exchange, 500, JsonUtils.createErrorJson("Failed to delete file"));
         }
     }
-    
-    private void deleteFileAndMeta(String token) throws IOException {
-        Files.deleteIfExists(storage.filePath(token));
-        Files.deleteIfExists(storage.metaPath(token));
-    }
 }
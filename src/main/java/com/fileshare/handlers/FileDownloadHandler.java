@@ -1,23 +1,44 @@
 package com.fileshare.handlers;
 
+import com.fileshare.core.HotFileCache;
 import com.fileshare.core.Storage;
+import com.fileshare.utils.FileTransfer;
+import com.fileshare.utils.HttpRange;
 import com.fileshare.utils.HttpUtils;
 import com.fileshare.utils.PathUtils;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Обработчик скачивания файлов
  */
 public class FileDownloadHandler implements HttpHandler {
+    // Клиенты и CDN могут хранить копию, но перед использованием сверяют ETag
+    private static final String CACHE_CONTROL = "public, no-cache";
     private final Storage storage;
+    // null, если кэш отключён
+    private final HotFileCache cache;
 
-    public FileDownloadHandler(Storage storage) {
+    /**
+     * Источник тела ответа: файл на диске или его копия в кэше
+     */
+    private interface Body {
+        void transfer(long position, long count, OutputStream out) throws IOException;
+    }
+
+    public FileDownloadHandler(Storage storage, HotFileCache cache) {
         this.storage = storage;
+        this.cache = cache;
     }
 
     @Override
@@ -34,12 +55,14 @@ public class FileDownloadHandler implements HttpHandler {
         }
         
         Storage.Meta meta = storage.readMeta(token);
-        if (meta == null || !Files.exists(storage.filePath(token))) {
+        // Попадание в кэш обходится без обращений к диску
+        ByteBuffer cached = meta == null || cache == null ? null : cache.get(token);
+        if (meta == null || (cached == null && !Files.exists(storage.filePath(token)))) {
             sendNotFoundResponse(exchange);
             return;
         }
         
-        serveFile(exchange, token, meta);
+        serveFile(exchange, token, meta, cached);
     }
     
     private void sendNotFoundResponse(HttpExchange exchange) throws IOException {
@@ -50,22 +73,140 @@ public class FileDownloadHandler implements HttpHandler {
         }
     }
     
-    private void serveFile(HttpExchange exchange, String token, Storage.Meta meta) throws IOException {
-        storage.touchDownload(token);
-        
-        Path filePath = storage.filePath(token);
+    private void serveFile(HttpExchange exchange, String token, Storage.Meta meta, ByteBuffer cached) throws IOException {
         String filename = meta.originalName == null || meta.originalName.isBlank() ? token : meta.originalName;
+        // Сжатый на диске файл уходит как есть клиентам с gzip, остальным - с распаковкой на лету
+        boolean encoded = meta.isCompressed() && HttpUtils.acceptsGzip(exchange);
+        String etag = etag(token, meta.sizeBytes, meta.createdAtEpochSec, encoded);
+        String lastModified = HttpUtils.formatHttpDate(meta.createdAtEpochSec);
+        
+        HttpUtils.setValidators(exchange, etag, meta.createdAtEpochSec, CACHE_CONTROL);
+        if (meta.isCompressed()) exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        // Копия клиента актуальна: ни тела, ни записи счётчика скачиваний
+        if (HttpUtils.isNotModified(exchange, etag, meta.createdAtEpochSec)) {
+            HttpUtils.sendNotModified(exchange);
+            return;
+        }
+        if (encoded) exchange.getResponseHeaders().set("Content-Encoding", meta.encoding);
+        
+        if (cached != null) {
+            sendBody(exchange, token, meta, filename, etag, lastModified, cached, null, encoded);
+            return;
+        }
+        try (FileChannel channel = storage.openFile(token)) {
+            ByteBuffer loaded = cache == null ? null : cache.load(token, channel);
+            sendBody(exchange, token, meta, filename, etag, lastModified, loaded, loaded == null ? channel : null, encoded);
+        }
+    }
+    
+    /**
+     * Отправка из буфера кэша или из файла; для клиентов без gzip длина и диапазоны
+     * считаются по распакованному содержимому
+     */
+    private void sendBody(HttpExchange exchange, String token, Storage.Meta meta, String filename, String etag,
+                          String lastModified, ByteBuffer buffer, FileChannel channel, boolean encoded)
+            throws IOException {
+        if (meta.isCompressed() && !encoded) {
+            Body inflated = buffer != null
+                    ? (position, count, os) -> FileTransfer.inflate(buffer, position, count, os)
+                    : (position, count, os) -> FileTransfer.inflate(channel, position, count, os);
+            sendBody(exchange, token, meta, filename, etag, lastModified, meta.sizeBytes, inflated);
+        } else if (buffer != null) {
+            sendBody(exchange, token, meta, filename, etag, lastModified, buffer.remaining(),
+                    (position, count, os) -> FileTransfer.transfer(buffer, position, count, os));
+        } else {
+            sendBody(exchange, token, meta, filename, etag, lastModified, channel.size(),
+                    (position, count, os) -> FileTransfer.transfer(channel, position, count, os));
+        }
+    }
+    
+    private void sendBody(HttpExchange exchange, String token, Storage.Meta meta, String filename, String etag,
+                          String lastModified, long size, Body body) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Accept-Ranges", "bytes");
+        headers.set("Content-Disposition", "attachment; filename=\"" + encodeFilename(filename) + "\"");
+        
+        Headers request = exchange.getRequestHeaders();
+        List<HttpRange> ranges = null;
+        if (ifRangeMatches(request.getFirst("If-Range"), etag, lastModified)) {
+            ranges = HttpRange.parse(request.getFirst("Range"), size);
+        }
         
-        exchange.getResponseHeaders().add("Content-Type", meta.contentType);
-        exchange.getResponseHeaders().add("Content-Disposition", 
-            "attachment; filename=\"" + encodeFilename(filename) + "\"");
+        if (ranges == null) {
+            storage.touchDownload(token);
+            headers.set("Content-Type", meta.contentType);
+            exchange.sendResponseHeaders(200, size);
+            try (var os = exchange.getResponseBody()) {
+                body.transfer(0, size, os);
+            }
+        } else if (ranges.isEmpty()) {
+            headers.set("Content-Range", "bytes */" + size);
+            exchange.sendResponseHeaders(416, -1);
+        } else {
+            // Докачка и параллельные сегменты считаются одним скачиванием - по запросу начала файла
+            if (ranges.get(0).start == 0) storage.touchDownload(token);
+            if (ranges.size() == 1) {
+                sendSingleRange(exchange, body, ranges.get(0), size, meta.contentType);
+            } else {
+                sendMultipleRanges(exchange, body, ranges, size, meta.contentType);
+            }
+        }
+    }
+    
+    private static void sendSingleRange(HttpExchange exchange, Body body, HttpRange range,
+                                        long size, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Content-Range", range.contentRange(size));
+        exchange.sendResponseHeaders(206, range.length());
+        try (var os = exchange.getResponseBody()) {
+            body.transfer(range.start, range.length(), os);
+        }
+    }
+    
+    private static void sendMultipleRanges(HttpExchange exchange, Body body, List<HttpRange> ranges,
+                                           long size, String contentType) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long length = 0;
+        for (HttpRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: " + range.contentRange(size) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            partHeaders.add(partHeader);
+            length += partHeader.length + range.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        length += closing.length;
         
-        exchange.sendResponseHeaders(200, Files.size(filePath));
+        exchange.getResponseHeaders().set("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        exchange.sendResponseHeaders(206, length);
         try (var os = exchange.getResponseBody()) {
-            Files.copy(filePath, os);
+            for (int i = 0; i < ranges.size(); i++) {
+                HttpRange range = ranges.get(i);
+                os.write(partHeaders.get(i));
+                body.transfer(range.start, range.length(), os);
+            }
+            os.write(closing);
         }
     }
     
+    /**
+     * If-Range: диапазон отдаётся, только если у клиента та же версия файла
+     */
+    private static boolean ifRangeMatches(String ifRange, String etag, String lastModified) {
+        if (ifRange == null) return true;
+        String v = ifRange.trim();
+        if (v.startsWith("\"")) return v.equals(etag);
+        return v.equals(lastModified);
+    }
+    
+    // Загруженные файлы не меняются, поэтому версия определяется токеном, размером и временем создания;
+    // сжатое и несжатое представления различаются суффиксом
+    private static String etag(String token, long size, long createdAtEpochSec, boolean gzip) {
+        return "\"" + token + "-" + Long.toHexString(size) + "-" + Long.toHexString(createdAtEpochSec)
+                + (gzip ? "-gz" : "") + "\"";
+    }
+    
     private static String encodeFilename(String filename) {
         if (filename == null) return "";
         
@@ -1,23 +1,29 @@
 package com.fileshare.handlers;
 
-import com.fileshare.core.Storage;
 import com.fileshare.core.Auth;
+import com.fileshare.core.SortedFileIndex;
+import com.fileshare.core.Storage;
 import com.fileshare.utils.HttpUtils;
 import com.fileshare.utils.JsonUtils;
+import com.fileshare.utils.JsonWriter;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
-import java.util.List;
+import java.util.Map;
 
 /**
  * Обработчик списка файлов
+ * Параметры: sort (name, size, created, downloads, lastDownloaded), order (asc, desc),
+ * limit и cursor из nextCursor предыдущей страницы. Без limit возвращаются все файлы
  */
 public class FileListHandler implements HttpHandler {
-    private final Storage storage;
+    private static final int MAX_LIMIT = 1000;
+
+    private final SortedFileIndex index;
     private final Auth auth;
 
-    public FileListHandler(Storage storage, Auth auth) {
-        this.storage = storage;
+    public FileListHandler(SortedFileIndex index, Auth auth) {
+        this.index = index;
         this.auth = auth;
     }
 
@@ -34,34 +40,55 @@ public class FileListHandler implements HttpHandler {
             return;
         }
         
+        JsonWriter json = new JsonWriter(exchange, 200);
         try {
-            List<Storage.Meta> metas = storage.listMetas();
-            String json = buildFilesListJson(metas);
-            HttpUtils.sendJsonResponse(exchange, 200, json);
-        } catch (Exception e) {
+            Map<String, String> params = HttpUtils.queryParams(exchange);
+            SortedFileIndex.SortField sort = SortedFileIndex.SortField.fromParam(params.getOrDefault("sort", "created"));
+            String order = params.getOrDefault("order", "desc");
+            if (!order.equalsIgnoreCase("asc") && !order.equalsIgnoreCase("desc")) {
+                throw new IllegalArgumentException("order must be asc or desc");
+            }
+            int limit = parseLimit(params.get("limit"));
+            json.beginObject().name("files").beginArray();
+            String nextCursor = index.forEachInPage(sort, order.equalsIgnoreCase("desc"), params.get("cursor"), limit,
+                    meta -> writeFile(json, meta));
+            json.endArray();
+            if (nextCursor != null) json.field("nextCursor", nextCursor);
+            json.endObject();
+        } catch (IllegalArgumentException e) {
+            // Параметры проверяются до первой записи в ответ, поэтому статус ещё можно сменить
+            json.discard();
+            HttpUtils.sendJsonResponse(exchange, 400, JsonUtils.createErrorJson(e.getMessage()));
+            return;
+        } catch (RuntimeException e) {
+            if (json.isCommitted()) throw e;
+            json.discard();
             HttpUtils.sendJsonResponse(exchange, 500, JsonUtils.createErrorJson("Failed to get files list"));
+            return;
         }
+        json.close();
     }
     
-    private String buildFilesListJson(List<Storage.Meta> metas) {
-        StringBuilder json = new StringBuilder();
-        json.append("{\"files\":[");
-        
-        for (int i = 0; i < metas.size(); i++) {
-            Storage.Meta meta = metas.get(i);
-            if (i > 0) json.append(",");
-            
-            json.append("{")
-                .append("\"token\":\"").append(meta.token).append("\",")
-                .append("\"name\":\"").append(JsonUtils.escapeJson(meta.originalName)).append("\",")
-                .append("\"size\":").append(meta.sizeBytes).append(",")
-                .append("\"downloads\":").append(meta.downloadCount).append(",")
-                .append("\"created\":").append(meta.createdAtEpochSec * 1000).append(",")
-                .append("\"lastDownloaded\":").append(meta.lastDownloadedEpochSec * 1000)
-                .append("}");
+    private static int parseLimit(String value) {
+        if (value == null || value.isEmpty()) return 0;
+        int limit;
+        try {
+            limit = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit must be a number");
         }
-        
-        json.append("]}");
-        return json.toString();
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive");
+        return Math.min(limit, MAX_LIMIT);
+    }
+    
+    private static void writeFile(JsonWriter json, Storage.Meta meta) throws IOException {
+        json.beginObject()
+            .field("token", meta.token)
+            .field("name", meta.originalName == null ? "" : meta.originalName)
+            .field("size", meta.sizeBytes)
+            .field("downloads", meta.downloadCount)
+            .field("created", meta.createdAtEpochSec * 1000)
+            .field("lastDownloaded", meta.lastDownloadedEpochSec * 1000)
+            .endObject();
     }
 }
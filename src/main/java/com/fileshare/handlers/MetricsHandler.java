@@ -0,0 +1,50 @@
+package com.fileshare.handlers;
+
+import com.fileshare.services.MetricsRegistry;
+import com.fileshare.utils.HttpUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Выдача метрик для Prometheus
+ * Если задан токен, запрос должен содержать Authorization: Bearer с этим токеном;
+ * пользовательские токены сюда не подходят, так как они истекают
+ */
+public class MetricsHandler implements HttpHandler {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+    // null, если выдача открыта
+    private final byte[] expectedAuthorization;
+
+    public MetricsHandler(MetricsRegistry registry, String token) {
+        this.registry = registry;
+        this.expectedAuthorization = token == null || token.isEmpty()
+                ? null : ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!HttpUtils.isMethod(exchange, "GET")) {
+            HttpUtils.sendMethodNotAllowed(exchange);
+            return;
+        }
+        if (expectedAuthorization != null) {
+            String header = exchange.getRequestHeaders().getFirst("Authorization");
+            if (header == null || !MessageDigest.isEqual(expectedAuthorization, header.getBytes(StandardCharsets.UTF_8))) {
+                HttpUtils.sendUnauthorized(exchange);
+                return;
+            }
+        }
+        byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
@@ -1,15 +1,48 @@
 package com.fileshare.handlers;
 
+import com.fileshare.utils.HttpUtils;
 import com.fileshare.utils.MimeTypeDetector;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Отдача веб-интерфейса из памяти
+ * Все ресурсы /public загружаются при старте вместе с заранее сжатой gzip-версией
+ */
 public class StaticFileHandler implements HttpHandler {
+    private static final String CACHE_CONTROL = "public, no-cache";
+    private static final String ROOT = "/public";
+
+    private record Resource(byte[] identity, byte[] gzip, String contentType, String etag,
+                            String gzipEtag, long lastModifiedEpochSec) {}
+
+    private final Map<String, Resource> resources;
+
+    public StaticFileHandler() throws IOException {
+        this.resources = loadResources();
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
@@ -23,20 +56,82 @@ public class StaticFileHandler implements HttpHandler {
             exchange.sendResponseHeaders(400, -1);
             return;
         }
-        String resourcePath = "/public" + path;
-        try (InputStream in = getClass().getResourceAsStream(resourcePath)) {
-            if (in == null) {
-                byte[] notFound = "Not found".getBytes(StandardCharsets.UTF_8);
-                exchange.sendResponseHeaders(404, notFound.length);
-                try (OutputStream os = exchange.getResponseBody()) { os.write(notFound); }
-                return;
-            }
-            String contentType = MimeTypeDetector.guess(path);
-            exchange.getResponseHeaders().add("Content-Type", contentType);
-            exchange.sendResponseHeaders(200, 0);
-            try (OutputStream os = exchange.getResponseBody()) {
-                in.transferTo(os);
+        Resource resource = resources.get(path);
+        if (resource == null) {
+            byte[] notFound = "Not found".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, notFound.length);
+            try (OutputStream os = exchange.getResponseBody()) { os.write(notFound); }
+            return;
+        }
+        boolean gzip = resource.gzip != null && HttpUtils.acceptsGzip(exchange);
+        String etag = gzip ? resource.gzipEtag : resource.etag;
+        Headers headers = exchange.getResponseHeaders();
+        HttpUtils.setValidators(exchange, etag, resource.lastModifiedEpochSec, CACHE_CONTROL);
+        if (resource.gzip != null) headers.set("Vary", "Accept-Encoding");
+        if (HttpUtils.isNotModified(exchange, etag, resource.lastModifiedEpochSec)) {
+            HttpUtils.sendNotModified(exchange);
+            return;
+        }
+        byte[] body = gzip ? resource.gzip : resource.identity;
+        headers.set("Content-Type", resource.contentType);
+        if (gzip) headers.set("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private Map<String, Resource> loadResources() throws IOException {
+        URL root = getClass().getResource(ROOT);
+        if (root == null) return Map.of();
+        URI uri;
+        try {
+            uri = root.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid resource location: " + root, e);
+        }
+        if (uri.getScheme().equals("jar")) {
+            try (FileSystem fs = FileSystems.newFileSystem(uri, Map.of())) {
+                return loadResources(fs.getPath(ROOT));
             }
         }
+        return loadResources(Path.of(uri));
+    }
+
+    private static Map<String, Resource> loadResources(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        Map<String, Resource> loaded = new HashMap<>();
+        for (Path file : files) {
+            String path = "/" + dir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+            byte[] identity = Files.readAllBytes(file);
+            byte[] gzip = gzip(identity);
+            // Сжатая версия хранится, только если заметно экономит трафик
+            if (gzip.length >= identity.length * 0.9) gzip = null;
+            String hash = contentHash(identity);
+            loaded.put(path, new Resource(identity, gzip, MimeTypeDetector.guess(path),
+                    "\"" + hash + "\"", "\"" + hash + "-gz\"",
+                    Files.getLastModifiedTime(file).toMillis() / 1000));
+        }
+        return Map.copyOf(loaded);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos) {{ def.setLevel(9); }}) {
+            gz.write(data);
+        }
+        return bos.toByteArray();
+    }
+
+    private static String contentHash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
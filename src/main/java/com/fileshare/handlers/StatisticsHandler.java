@@ -1,22 +1,30 @@
 package com.fileshare.handlers;
 
-import com.fileshare.core.Storage;
+import com.fileshare.core.HotFileCache;
+import com.fileshare.core.StorageStatistics;
+import com.fileshare.services.DiskBudgetService;
 import com.fileshare.core.Auth;
 import com.fileshare.utils.HttpUtils;
+import com.fileshare.utils.JsonWriter;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Обработчик базовой статистики файлов
  */
 public class StatisticsHandler implements HttpHandler {
-    private final Storage storage;
+    private final StorageStatistics statistics;
+    // null, если лимит объёма не задан
+    private final DiskBudgetService diskBudget;
+    // null, если кэш отключён
+    private final HotFileCache cache;
     private final Auth auth;
 
-    public StatisticsHandler(Storage storage, Auth auth) { 
-        this.storage = storage; 
+    public StatisticsHandler(StorageStatistics statistics, DiskBudgetService diskBudget, HotFileCache cache, Auth auth) { 
+        this.statistics = statistics; 
+        this.diskBudget = diskBudget;
+        this.cache = cache;
         this.auth = auth;
     }
 
@@ -33,17 +41,32 @@ public class StatisticsHandler implements HttpHandler {
             return;
         }
         
-        List<Storage.Meta> metas = storage.listMetas();
-        String json = buildStatisticsJson(metas);
-        HttpUtils.sendJsonResponse(exchange, 200, json);
-    }
-    
-    private String buildStatisticsJson(List<Storage.Meta> metas) {
-        long totalFiles = metas.size();
-        long totalBytes = metas.stream().mapToLong(m -> m.sizeBytes).sum();
-        long totalDownloads = metas.stream().mapToLong(m -> m.downloadCount).sum();
-        
-        return String.format("{\"totalFiles\":%d,\"totalBytes\":%d,\"totalDownloads\":%d}", 
-                           totalFiles, totalBytes, totalDownloads);
+        StorageStatistics.Snapshot stats = statistics.snapshot();
+        try (JsonWriter json = new JsonWriter(exchange, 200)) {
+            json.beginObject()
+                .field("totalFiles", stats.totalFiles())
+                .field("totalBytes", stats.totalSize())
+                .field("totalDownloads", stats.totalDownloads());
+            if (diskBudget != null) {
+                json.name("diskBudget").beginObject()
+                    .field("budgetBytes", diskBudget.budgetBytes())
+                    .field("usedBytes", diskBudget.usedBytes())
+                    .field("evictedFiles", diskBudget.evictedFiles())
+                    .field("evictedBytes", diskBudget.evictedBytes())
+                    .endObject();
+            }
+            if (cache != null) {
+                json.name("hotCache").beginObject()
+                    .field("capacityBytes", cache.capacityBytes())
+                    .field("usedBytes", cache.usedBytes())
+                    .field("entries", cache.entries())
+                    .field("hits", cache.hits())
+                    .field("misses", cache.misses())
+                    .field("evictions", cache.evictions())
+                    .field("rejections", cache.rejections())
+                    .endObject();
+            }
+            json.endObject();
+        }
     }
 }
@@ -0,0 +1,276 @@
+package com.fileshare.services;
+
+import com.fileshare.core.Auth;
+import com.fileshare.utils.TokenBucket;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ограничение пропускной способности загрузок и скачиваний
+ * Потоки запроса и ответа оборачиваются: переданные байты списываются из ведра токенов клиента
+ * (пользователь или IP-адрес) и, если задано, из общего ведра. Списание идёт порциями по десяткам
+ * КиБ уже после передачи, поэтому на каждую запись приходится лишь счётчик.
+ * Приём (тела запросов) и отдача (тела ответов) ограничиваются независимо с одинаковыми настройками
+ */
+public final class BandwidthShaper {
+    private static final int MAX_QUANTUM = 64 * 1024;
+    private static final int MIN_QUANTUM = 4 * 1024;
+
+    /**
+     * Ключ клиента: user - имя пользователя, если запрос авторизован, иначе IP; ip - всегда IP
+     */
+    public enum KeyMode { USER, IP }
+
+    private static final class ClientBucket {
+        final TokenBucket bucket;
+        // Незавершённые запросы клиента; ведро удаляется только без них
+        final AtomicInteger active = new AtomicInteger();
+
+        ClientBucket(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * Ограничения одного направления
+     */
+    private final class Direction {
+        final TokenBucket total;
+        final ConcurrentMap<String, ClientBucket> clients = new ConcurrentHashMap<>();
+        final LongAdder throttledBytes = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+
+        Direction() {
+            this.total = totalBytesPerSecond > 0 ? new TokenBucket(totalBytesPerSecond, burst(totalBytesPerSecond)) : null;
+        }
+
+        ClientBucket open(String key) {
+            if (clientBytesPerSecond <= 0) return null;
+            return clients.compute(key, (k, b) -> {
+                if (b == null) b = new ClientBucket(new TokenBucket(clientBytesPerSecond, burst(clientBytesPerSecond)));
+                b.active.incrementAndGet();
+                return b;
+            });
+        }
+
+        /**
+         * Списание переданных байт и ожидание, если скорость превышена
+         */
+        void pay(ClientBucket client, long bytes, boolean wait) throws IOException {
+            long delay = client != null ? client.bucket.reserve(bytes) : 0;
+            if (total != null) delay = Math.max(delay, total.reserve(bytes));
+            if (delay <= 0) return;
+            throttledBytes.add(bytes);
+            if (!wait) return;
+            waitNanos.add(delay);
+            long deadline = System.nanoTime() + delay;
+            long left;
+            while ((left = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(left);
+                if (Thread.interrupted()) throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+
+        int expireIdle() {
+            int before = clients.size();
+            for (String key : clients.keySet()) {
+                clients.computeIfPresent(key, (k, b) -> b.active.get() == 0 && b.bucket.isFull() ? null : b);
+            }
+            return before - clients.size();
+        }
+    }
+
+    private final long clientBytesPerSecond;
+    private final long totalBytesPerSecond;
+    private final int quantum;
+    private final KeyMode keyMode;
+    private final Auth auth;
+    private final Direction upload;
+    private final Direction download;
+
+    /**
+     * @param clientBytesPerSecond скорость на клиента в каждом направлении, 0 - без ограничения
+     * @param totalBytesPerSecond  общая скорость в каждом направлении, 0 - без ограничения
+     */
+    public BandwidthShaper(long clientBytesPerSecond, long totalBytesPerSecond, KeyMode keyMode, Auth auth) {
+        this.clientBytesPerSecond = clientBytesPerSecond;
+        this.totalBytesPerSecond = totalBytesPerSecond;
+        long slowest = clientBytesPerSecond > 0 && totalBytesPerSecond > 0
+                ? Math.min(clientBytesPerSecond, totalBytesPerSecond)
+                : Math.max(clientBytesPerSecond, totalBytesPerSecond);
+        // Порция - не больше 1/8 секунды передачи, чтобы медленные клиенты не ждали секундами
+        this.quantum = (int) Math.max(MIN_QUANTUM, Math.min(MAX_QUANTUM, slowest / 8));
+        this.keyMode = keyMode;
+        this.auth = auth;
+        this.upload = new Direction();
+        this.download = new Direction();
+    }
+
+    /**
+     * Обёртка обработчика, ограничивающая скорость тел запроса и ответа
+     */
+    public HttpHandler shape(HttpHandler handler) {
+        return exchange -> handle(exchange, handler);
+    }
+
+    private void handle(HttpExchange exchange, HttpHandler handler) throws IOException {
+        String key = clientKey(exchange);
+        ClientBucket uploadClient = upload.open(key);
+        ClientBucket downloadClient = download.open(key);
+        Meter received = new Meter(upload, uploadClient);
+        Meter sent = new Meter(download, downloadClient);
+        exchange.setStreams(new ShapedInputStream(exchange.getRequestBody(), received),
+                new ShapedOutputStream(exchange.getResponseBody(), sent));
+        try {
+            handler.handle(exchange);
+        } finally {
+            // Остаток меньше порции списывается без ожидания и замедлит следующий запрос
+            received.settle();
+            sent.settle();
+            if (uploadClient != null) uploadClient.active.decrementAndGet();
+            if (downloadClient != null) downloadClient.active.decrementAndGet();
+        }
+    }
+
+    private String clientKey(HttpExchange exchange) {
+        if (keyMode == KeyMode.USER && auth != null) {
+            String username = auth.getUsername(exchange);
+            if (username != null) return "user:" + username;
+        }
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return "ip:" + (remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString());
+    }
+
+    /**
+     * Удаление вёдер клиентов без активных запросов, успевших полностью наполниться
+     *
+     * @return число удалённых вёдер
+     */
+    public int expireIdle() {
+        return upload.expireIdle() + download.expireIdle();
+    }
+
+    public long clientBytesPerSecond() {
+        return clientBytesPerSecond;
+    }
+
+    public long totalBytesPerSecond() {
+        return totalBytesPerSecond;
+    }
+
+    public long trackedClients() {
+        return upload.clients.size() + download.clients.size();
+    }
+
+    public long uploadThrottledBytes() {
+        return upload.throttledBytes.sum();
+    }
+
+    public long uploadWaitMillis() {
+        return upload.waitNanos.sum() / 1_000_000;
+    }
+
+    public long downloadThrottledBytes() {
+        return download.throttledBytes.sum();
+    }
+
+    public long downloadWaitMillis() {
+        return download.waitNanos.sum() / 1_000_000;
+    }
+
+    private static long burst(long bytesPerSecond) {
+        // Ёмкость - четверть секунды передачи, но не меньше наибольшей порции
+        return Math.max(MAX_QUANTUM, bytesPerSecond / 4);
+    }
+
+    /**
+     * Счётчик переданных байт одного потока; списывает их из вёдер порциями
+     */
+    private final class Meter {
+        private final Direction direction;
+        private final ClientBucket client;
+        private long pending;
+
+        Meter(Direction direction, ClientBucket client) {
+            this.direction = direction;
+            this.client = client;
+        }
+
+        void account(long n) throws IOException {
+            pending += n;
+            if (pending >= quantum) {
+                long bytes = pending;
+                pending = 0;
+                direction.pay(client, bytes, true);
+            }
+        }
+
+        void settle() throws IOException {
+            if (pending > 0) direction.pay(client, pending, false);
+            pending = 0;
+        }
+    }
+
+    private static final class ShapedInputStream extends FilterInputStream {
+        final Meter meter;
+
+        ShapedInputStream(InputStream in, Meter meter) {
+            super(in);
+            this.meter = meter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) meter.account(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) meter.account(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) meter.account(skipped);
+            return skipped;
+        }
+    }
+
+    private static final class ShapedOutputStream extends FilterOutputStream {
+        final Meter meter;
+
+        ShapedOutputStream(OutputStream out, Meter meter) {
+            super(out);
+            this.meter = meter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            meter.account(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            meter.account(len);
+        }
+    }
+}
@@ -1,24 +1,132 @@
 package com.fileshare.services;
 
 import com.fileshare.core.Storage;
+import java.io.IOException;
 import java.time.Duration;
-import java.util.Timer;
-import java.util.TimerTask;
-
-public final class CleanupService {
-    private static final long PERIOD_MS = Duration.ofHours(12).toMillis();
-
-    public static void start(Storage storage, Duration ttl) {
-        Timer timer = new Timer("cleanup", true);
-        timer.schedule(new TimerTask() {
-            @Override public void run() {
-                try {
-                    int n = storage.deleteStale(ttl);
-                    if (n > 0) System.out.println("Cleanup removed " + n + " stale files");
-                } catch (Exception e) {
-                    System.err.println("Cleanup error: " + e.getMessage());
-                }
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Удаление файлов, к которым не обращались дольше ttl
+ * Сроки хранятся в очереди по времени истечения (последнее скачивание или загрузка + ttl);
+ * удалённый файл сразу убирается из очереди.
+ * Скачивания очередь не трогают: при наступлении срока запись перепроверяется и,
+ * если файл скачивали, возвращается в очередь с новым сроком. Раз в секунду удаляется
+ * не больше BATCH_SIZE файлов, чтобы не создавать всплесков ввода-вывода
+ */
+public final class CleanupService implements Storage.ChangeListener {
+    private static final long TICK_MS = 1000;
+    private static final int BATCH_SIZE = 256;
+
+    private record Expiry(long atEpochSec, String token) {}
+
+    private final Storage storage;
+    private final long ttlSec;
+    // Сроки по возрастанию; токен в сравнении позволяет удалять запись файла за O(log n)
+    private final TreeSet<Expiry> queue = new TreeSet<>(
+            Comparator.comparingLong(Expiry::atEpochSec).thenComparing(Expiry::token));
+    private final Map<String, Expiry> queued = new HashMap<>();
+    private final AtomicLong expiredFiles = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+
+    private CleanupService(Storage storage, Duration ttl) {
+        this.storage = storage;
+        this.ttlSec = ttl.toSeconds();
+    }
+
+    public static CleanupService start(Storage storage, Duration ttl) {
+        CleanupService service = new CleanupService(storage, ttl);
+        storage.addListener(service);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cleanup");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(service::expireDue, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        return service;
+    }
+
+    @Override
+    public synchronized void onPut(Storage.Meta previous, Storage.Meta current) {
+        // Продление срока после скачивания учитывается лениво, при извлечении из очереди
+        if (previous == null) requeue(new Expiry(expiresAt(current), current.token));
+    }
+
+    @Override
+    public synchronized void onRemove(Storage.Meta removed) {
+        Expiry expiry = queued.remove(removed.token);
+        if (expiry != null) queue.remove(expiry);
+    }
+
+    private long expiresAt(Storage.Meta m) {
+        return Math.max(m.createdAtEpochSec, m.lastDownloadedEpochSec) + ttlSec;
+    }
+
+    private synchronized Expiry pollDue(long now) {
+        Expiry head = queue.isEmpty() ? null : queue.first();
+        if (head == null || head.atEpochSec > now) return null;
+        queue.pollFirst();
+        queued.remove(head.token);
+        return head;
+    }
+
+    private synchronized void requeue(Expiry expiry) {
+        Expiry old = queued.put(expiry.token, expiry);
+        if (old != null) queue.remove(old);
+        queue.add(expiry);
+    }
+
+    void expireDue() {
+        long now = System.currentTimeMillis() / 1000;
+        runs.incrementAndGet();
+        int deleted = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Expiry due = pollDue(now);
+            if (due == null) break;
+            try {
+                if (expire(due, now)) deleted++;
+            } catch (Exception e) {
+                // Повторная попытка через минуту
+                requeue(new Expiry(now + 60, due.token));
+                System.err.println("Cleanup error: " + e.getMessage());
             }
-        }, 10_000, PERIOD_MS);
+        }
+        if (deleted > 0) {
+            expiredFiles.addAndGet(deleted);
+            System.out.println("Cleanup removed " + deleted + " stale files");
+        }
+    }
+
+    private boolean expire(Expiry due, long now) throws IOException {
+        Storage.Meta m = storage.readMeta(due.token);
+        if (m == null) return false;
+        long at = expiresAt(m);
+        if (at > now) {
+            requeue(new Expiry(at, m.token));
+            return false;
+        }
+        if (storage.deleteIfIdleSince(m.token, now - ttlSec)) return true;
+        // Скачан между проверкой и удалением
+        Storage.Meta fresh = storage.readMeta(m.token);
+        if (fresh != null) requeue(new Expiry(expiresAt(fresh), fresh.token));
+        return false;
+    }
+
+    public long expiredFiles() {
+        return expiredFiles.get();
+    }
+
+    public long runs() {
+        return runs.get();
+    }
+
+    public synchronized int queuedFiles() {
+        return queue.size();
     }
 }
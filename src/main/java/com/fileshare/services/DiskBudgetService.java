@@ -0,0 +1,202 @@
+package com.fileshare.services;
+
+import com.fileshare.core.Storage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничение объёма хранилища
+ * Когда занятое место превышает верхнюю отметку, в фоновом потоке удаляются файлы,
+ * которые дольше всех не скачивали, пока объём не опустится ниже нижней отметки.
+ * Очередь упорядочена по времени последнего обращения; скачивания только увеличивают
+ * ключ, поэтому запись перепроверяется при извлечении и при необходимости возвращается в очередь.
+ * Удалённый файл сразу убирается из очереди; файл, который не удалось удалить, возвращается
+ * в очередь, а вытеснение повторяется через минуту
+ */
+public final class DiskBudgetService implements Storage.ChangeListener {
+    // При учёте размера каждое удвоение размера старит файл на этот интервал
+    private static final long SIZE_WEIGHT_SEC = 3600;
+    private static final long SIZE_WEIGHT_UNIT = 1024 * 1024;
+    private static final long RETRY_DELAY_SEC = 60;
+
+    private record Candidate(long key, String token) {}
+
+    private final Storage storage;
+    private final long budgetBytes;
+    private final long highWaterBytes;
+    private final long lowWaterBytes;
+    private final boolean sizeWeighted;
+    // Ключ по возрастанию; токен в сравнении позволяет удалять запись файла за O(log n)
+    private final TreeSet<Candidate> queue = new TreeSet<>(
+            Comparator.comparingLong(Candidate::key).thenComparing(Candidate::token));
+    private final Map<String, Candidate> queued = new HashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "disk-budget");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong evictedFiles = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    // Заявленный объём незавершённых поблочных загрузок
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private DiskBudgetService(Storage storage, long budgetBytes, double highWater, double lowWater, boolean sizeWeighted) {
+        if (!(lowWater > 0 && lowWater <= highWater && highWater <= 1)) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 < low <= high <= 1");
+        }
+        this.storage = storage;
+        this.budgetBytes = budgetBytes;
+        this.highWaterBytes = (long) (budgetBytes * highWater);
+        this.lowWaterBytes = (long) (budgetBytes * lowWater);
+        this.sizeWeighted = sizeWeighted;
+    }
+
+    public static DiskBudgetService start(Storage storage, long budgetBytes, double highWater, double lowWater,
+                                          boolean sizeWeighted) {
+        DiskBudgetService service = new DiskBudgetService(storage, budgetBytes, highWater, lowWater, sizeWeighted);
+        storage.addListener(service);
+        service.checkUsage();
+        return service;
+    }
+
+    @Override
+    public void onPut(Storage.Meta previous, Storage.Meta current) {
+        if (previous != null) return;
+        requeue(new Candidate(key(current), current.token));
+        checkUsage();
+    }
+
+    @Override
+    public synchronized void onRemove(Storage.Meta removed) {
+        Candidate c = queued.remove(removed.token);
+        if (c != null) queue.remove(c);
+    }
+
+    /**
+     * Запуск вытеснения в фоне, если превышена верхняя отметка; вызывающий поток не блокируется
+     */
+    public void checkUsage() {
+        if (usedBytes() > highWaterBytes && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::evict);
+        }
+    }
+
+    /**
+     * Резерв места под незавершённую загрузку. Резерв считается занятым местом, поэтому под него
+     * вытесняются старые файлы. Резервы вместе не превышают нижней отметки, иначе вытеснение
+     * удалило бы все файлы
+     */
+    public boolean reserve(long bytes) {
+        long reserved;
+        do {
+            reserved = reservedBytes.get();
+            if (reserved + bytes > lowWaterBytes) return false;
+        } while (!reservedBytes.compareAndSet(reserved, reserved + bytes));
+        checkUsage();
+        return true;
+    }
+
+    public void release(long bytes) {
+        reservedBytes.addAndGet(-bytes);
+    }
+
+    private long key(Storage.Meta m) {
+        long lastAccess = Math.max(m.createdAtEpochSec, m.lastDownloadedEpochSec);
+        if (!sizeWeighted || m.sizeBytes <= SIZE_WEIGHT_UNIT) return lastAccess;
+        int doublings = 63 - Long.numberOfLeadingZeros(m.sizeBytes / SIZE_WEIGHT_UNIT);
+        return lastAccess - doublings * SIZE_WEIGHT_SEC;
+    }
+
+    private synchronized Candidate poll() {
+        Candidate c = queue.pollFirst();
+        if (c != null) queued.remove(c.token);
+        return c;
+    }
+
+    private synchronized void requeue(Candidate candidate) {
+        Candidate old = queued.put(candidate.token, candidate);
+        if (old != null) queue.remove(old);
+        queue.add(candidate);
+    }
+
+    private void evict() {
+        // Файлы, которые не удалось удалить; возвращаются в очередь после прохода, чтобы не зациклиться
+        List<Candidate> failed = new ArrayList<>();
+        try {
+            long files = 0, bytes = 0;
+            while (usedBytes() > lowWaterBytes) {
+                Candidate c = poll();
+                if (c == null) break;
+                Storage.Meta m = storage.readMeta(c.token);
+                if (m == null) continue;
+                long key = key(m);
+                if (key > c.key) {
+                    // Файл скачивали после постановки в очередь
+                    requeue(new Candidate(key, m.token));
+                    continue;
+                }
+                long before = storage.storedBytes();
+                try {
+                    if (!storage.delete(m.token)) continue;
+                } catch (Exception e) {
+                    System.err.println("Eviction error for " + m.token + ": " + e.getMessage());
+                    failed.add(c);
+                    continue;
+                }
+                files++;
+                // Удаление ссылки на общий блоб места не освобождает
+                bytes += Math.max(0, before - storage.storedBytes());
+            }
+            if (files > 0) {
+                evictedFiles.addAndGet(files);
+                evictedBytes.addAndGet(bytes);
+                System.out.println("Disk budget: evicted " + files + " files, " + bytes + " bytes");
+            }
+        } finally {
+            for (Candidate c : failed) {
+                if (storage.readMeta(c.token) != null) requeue(c);
+            }
+            scheduled.set(false);
+        }
+        if (!failed.isEmpty()) {
+            // Повторная попытка через минуту, если место так и не освободилось
+            executor.schedule(this::checkUsage, RETRY_DELAY_SEC, TimeUnit.SECONDS);
+            return;
+        }
+        // Загрузки, пришедшие во время вытеснения
+        checkUsage();
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Место на диске вместе с резервами незавершённых загрузок
+     */
+    public long usedBytes() {
+        return storage.storedBytes() + reservedBytes.get();
+    }
+
+    public long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    public long evictedFiles() {
+        return evictedFiles.get();
+    }
+
+    public long evictedBytes() {
+        return evictedBytes.get();
+    }
+}
@@ -0,0 +1,30 @@
+package com.fileshare.services;
+
+import com.fileshare.core.Storage;
+
+/**
+ * Фоновый перенос файлов в раскладку по подкаталогам; сервер продолжает обслуживать запросы
+ */
+public final class LayoutMigrationService {
+    private LayoutMigrationService() {}
+
+    public static void start(Storage storage) {
+        if (storage.isLayoutMigrated()) return;
+        Thread thread = new Thread(() -> {
+            long started = System.nanoTime();
+            try {
+                int moved = storage.migrateLayout();
+                if (moved > 0) {
+                    System.out.println("Layout migration moved " + moved + " files in "
+                            + (System.nanoTime() - started) / 1_000_000 + " ms");
+                }
+            } catch (Exception e) {
+                // Поиск по прежним путям продолжает работать, миграция повторится при следующем запуске
+                System.err.println("Layout migration error: " + e.getMessage());
+            }
+        }, "layout-migration");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+}
@@ -0,0 +1,222 @@
+package com.fileshare.services;
+
+import com.fileshare.utils.LatencyHistogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Метрики сервиса в текстовом формате Prometheus
+ * Каждый обработчик оборачивается: время ответа, коды статусов, принятые и отданные байты,
+ * число выполняющихся запросов. Показатели хранилища и сервисов регистрируются как функции
+ * и вычисляются только при выдаче
+ */
+public final class MetricsRegistry {
+    private static final String PREFIX = "fileshare_";
+    // Границы гистограммы: от 128 мкс до 64 с, степени двойки
+    private static final long[] LATENCY_BOUNDS_MICROS = new long[20];
+    private static final String[] LATENCY_BOUNDS_SECONDS = new String[LATENCY_BOUNDS_MICROS.length];
+
+    static {
+        for (int i = 0; i < LATENCY_BOUNDS_MICROS.length; i++) {
+            LATENCY_BOUNDS_MICROS[i] = 1L << (7 + i);
+            LATENCY_BOUNDS_SECONDS[i] = seconds(LATENCY_BOUNDS_MICROS[i]);
+        }
+    }
+
+    private record Function(String name, String help, String type, LongSupplier value) {}
+
+    private static final class HandlerMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder active = new LongAdder();
+        final LongAdder exceptions = new LongAdder();
+    }
+
+    // Контекст -> метрики; в выдаче упорядочены по имени контекста
+    private final Map<String, HandlerMetrics> handlers = new ConcurrentHashMap<>();
+    private final List<Function> functions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Обёртка обработчика контекста, собирающая метрики запросов
+     */
+    public HttpHandler instrument(String context, HttpHandler handler) {
+        HandlerMetrics metrics = handlers.computeIfAbsent(context, c -> new HandlerMetrics());
+        return exchange -> handle(exchange, handler, metrics);
+    }
+
+    public void gauge(String name, String help, LongSupplier value) {
+        functions.add(new Function(PREFIX + name, help, "gauge", value));
+    }
+
+    /**
+     * Монотонный счётчик, который ведёт сам сервис
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        functions.add(new Function(PREFIX + name + "_total", help, "counter", value));
+    }
+
+    private static void handle(HttpExchange exchange, HttpHandler handler, HandlerMetrics metrics) throws IOException {
+        long start = System.nanoTime();
+        metrics.active.increment();
+        CountingInputStream in = new CountingInputStream(exchange.getRequestBody());
+        CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody());
+        exchange.setStreams(in, out);
+        try {
+            handler.handle(exchange);
+        } catch (IOException | RuntimeException e) {
+            metrics.exceptions.increment();
+            throw e;
+        } finally {
+            metrics.active.decrement();
+            int status = exchange.getResponseCode();
+            // -1: ответ не отправлен, соединение закрыто из-за исключения
+            if (status > 0) metrics.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+            metrics.bytesIn.add(in.count);
+            metrics.bytesOut.add(out.count);
+            metrics.latency.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Все метрики в текстовом формате Prometheus 0.0.4
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(8 * 1024);
+        Map<String, HandlerMetrics> sorted = new TreeMap<>(handlers);
+
+        header(sb, "http_requests_total", "Completed HTTP requests by handler and status code", "counter");
+        for (Map.Entry<String, HandlerMetrics> e : sorted.entrySet()) {
+            for (Map.Entry<Integer, LongAdder> s : new TreeMap<>(e.getValue().statuses).entrySet()) {
+                sample(sb, "http_requests_total", e.getKey(), "code", s.getKey().toString(), s.getValue().sum());
+            }
+        }
+        header(sb, "http_exceptions_total", "Requests whose handler threw an exception", "counter");
+        for (Map.Entry<String, HandlerMetrics> e : sorted.entrySet()) {
+            sample(sb, "http_exceptions_total", e.getKey(), null, null, e.getValue().exceptions.sum());
+        }
+        header(sb, "http_request_bytes_total", "Request body bytes read", "counter");
+        for (Map.Entry<String, HandlerMetrics> e : sorted.entrySet()) {
+            sample(sb, "http_request_bytes_total", e.getKey(), null, null, e.getValue().bytesIn.sum());
+        }
+        header(sb, "http_response_bytes_total", "Response body bytes written", "counter");
+        for (Map.Entry<String, HandlerMetrics> e : sorted.entrySet()) {
+            sample(sb, "http_response_bytes_total", e.getKey(), null, null, e.getValue().bytesOut.sum());
+        }
+        header(sb, "http_active_requests", "Requests being processed", "gauge");
+        for (Map.Entry<String, HandlerMetrics> e : sorted.entrySet()) {
+            sample(sb, "http_active_requests", e.getKey(), null, null, e.getValue().active.sum());
+        }
+        header(sb, "http_request_duration_seconds", "Time until the handler returned", "histogram");
+        for (Map.Entry<String, HandlerMetrics> e : sorted.entrySet()) {
+            LatencyHistogram latency = e.getValue().latency;
+            long[] cumulative = latency.cumulativeCounts(LATENCY_BOUNDS_MICROS);
+            for (int i = 0; i < LATENCY_BOUNDS_SECONDS.length; i++) {
+                sample(sb, "http_request_duration_seconds_bucket", e.getKey(), "le", LATENCY_BOUNDS_SECONDS[i], cumulative[i]);
+            }
+            long count = cumulative[LATENCY_BOUNDS_MICROS.length];
+            sample(sb, "http_request_duration_seconds_bucket", e.getKey(), "le", "+Inf", count);
+            sb.append(PREFIX).append("http_request_duration_seconds_sum{handler=\"").append(escape(e.getKey()))
+                    .append("\"} ").append(seconds(latency.sumMicros())).append('\n');
+            sample(sb, "http_request_duration_seconds_count", e.getKey(), null, null, count);
+        }
+
+        for (Function f : functions) {
+            long value;
+            try {
+                value = f.value.getAsLong();
+            } catch (RuntimeException ex) {
+                // Сбой одного показателя не должен ломать всю выдачу
+                continue;
+            }
+            sb.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+            sb.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+            sb.append(f.name).append(' ').append(value).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String handler, String label, String labelValue,
+                               long value) {
+        sb.append(PREFIX).append(name).append("{handler=\"").append(escape(handler)).append('"');
+        if (label != null) sb.append(',').append(label).append("=\"").append(escape(labelValue)).append('"');
+        sb.append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
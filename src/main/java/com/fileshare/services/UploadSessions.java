@@ -0,0 +1,327 @@
+package com.fileshare.services;
+
+import com.fileshare.core.Storage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Сессии поблочной загрузки
+ * Файл создаётся сразу нужной длины, части пишутся по своим смещениям и могут приходить
+ * параллельно и повторно. После получения всех частей файл регистрируется в Storage одним действием.
+ * Сессии живут в памяти и удаляются после периода бездействия.
+ * Число открытых сессий ограничено в целом и на клиента; заявленный размер сессии резервируется
+ * на диске и в бюджете хранилища до её завершения или отмены
+ */
+public class UploadSessions {
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    public static final class Session {
+        public final String id;
+        public final String owner;
+        // Ключ лимита сессий: пользователь или IP-адрес
+        private final String client;
+        public final String name;
+        public final String contentType;
+        public final long size;
+        public final int chunkSize;
+        public final int chunkCount;
+        private final Path file;
+        private final FileChannel channel;
+        private final BitSet received;
+        private int receivedCount;
+        private volatile long lastActivityMillis;
+        // Запись частей - под разделяемой блокировкой, завершение и отмена - под исключительной
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private boolean closed;
+
+        private Session(String id, String owner, String client, String name, String contentType, long size,
+                        int chunkSize, Path file, FileChannel channel) {
+            this.id = id;
+            this.owner = owner;
+            this.client = client;
+            this.name = name;
+            this.contentType = contentType;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.file = file;
+            this.channel = channel;
+            this.received = new BitSet(chunkCount);
+            this.lastActivityMillis = System.currentTimeMillis();
+        }
+
+        public long chunkLength(int index) {
+            return Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        public synchronized int receivedCount() {
+            return receivedCount;
+        }
+
+        /**
+         * Полученные части в виде отрезков номеров [первый, последний]
+         */
+        public synchronized List<int[]> receivedRanges() {
+            List<int[]> ranges = new ArrayList<>();
+            int start = received.nextSetBit(0);
+            while (start >= 0) {
+                int end = received.nextClearBit(start) - 1;
+                ranges.add(new int[]{start, end});
+                start = received.nextSetBit(end + 1);
+            }
+            return ranges;
+        }
+
+        private synchronized void markReceived(int index) {
+            if (!received.get(index)) {
+                received.set(index);
+                receivedCount++;
+            }
+        }
+
+        public boolean isOwnedBy(String user) {
+            return Objects.equals(owner, user);
+        }
+    }
+
+    private final Storage storage;
+    private final Duration idleTimeout;
+    // null, если бюджет хранилища не задан
+    private final DiskBudgetService diskBudget;
+    private final int maxSessions;
+    private final int maxSessionsPerClient;
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // Под блокировкой this: открытые сессии по клиентам, их число и заявленный объём
+    private final Map<String, Integer> clientSessions = new HashMap<>();
+    private int openSessions;
+    private long reservedBytes;
+
+    public UploadSessions(Storage storage, Duration idleTimeout) {
+        this(storage, idleTimeout, null, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public UploadSessions(Storage storage, Duration idleTimeout, DiskBudgetService diskBudget,
+                          int maxSessions, int maxSessionsPerClient) {
+        this.storage = storage;
+        this.idleTimeout = idleTimeout;
+        this.diskBudget = diskBudget;
+        this.maxSessions = maxSessions;
+        this.maxSessionsPerClient = maxSessionsPerClient;
+    }
+
+    /**
+     * @param owner  пользователь для проверки доступа к сессии (null без авторизации)
+     * @param client ключ лимита сессий на клиента
+     */
+    public Session create(String owner, String client, String name, String contentType, long size, int chunkSize)
+            throws IOException {
+        if (size < 0) throw new IllegalArgumentException("size must not be negative");
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be between " + MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE);
+        }
+        if ((size + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) throw new IllegalArgumentException("too many chunks");
+        Path file = storage.newTempFile();
+        // Разреженный файл места не занимает, поэтому свободное место сверяется с суммой заявленных размеров
+        long usable = Files.getFileStore(file.getParent()).getUsableSpace();
+        admit(client, size, usable);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Длина задаётся сразу, части дописываются по своим смещениям
+            if (size > 0) channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        } catch (IOException e) {
+            if (channel != null) channel.close();
+            Files.deleteIfExists(file);
+            release(client, size);
+            throw e;
+        }
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Session session = new Session(id, owner, client, name, contentType, size, chunkSize, file, channel);
+        sessions.put(id, session);
+        return session;
+    }
+
+    private synchronized void admit(String client, long size, long usableSpace) throws IOException {
+        if (openSessions >= maxSessions) {
+            throw new TooManySessionsException("Too many open upload sessions");
+        }
+        if (clientSessions.getOrDefault(client, 0) >= maxSessionsPerClient) {
+            throw new TooManySessionsException("Too many open upload sessions for this client");
+        }
+        if (usableSpace - reservedBytes < size) throw new InsufficientSpaceException(size);
+        if (diskBudget != null && !diskBudget.reserve(size)) throw new InsufficientSpaceException(size);
+        clientSessions.merge(client, 1, Integer::sum);
+        openSessions++;
+        reservedBytes += size;
+    }
+
+    private synchronized void release(String client, long size) {
+        clientSessions.computeIfPresent(client, (k, n) -> n > 1 ? n - 1 : null);
+        openSessions--;
+        reservedBytes -= size;
+        if (diskBudget != null) diskBudget.release(size);
+    }
+
+    public Session get(String id) {
+        return id == null ? null : sessions.get(id);
+    }
+
+    /**
+     * Запись части index из тела запроса. Тело должно иметь ровно длину части;
+     * при обрыве соединения часть не отмечается полученной и может быть отправлена снова
+     */
+    public void writeChunk(Session session, int index, InputStream body) throws IOException {
+        if (index < 0 || index >= session.chunkCount) {
+            throw new IllegalArgumentException("chunk index must be between 0 and " + (session.chunkCount - 1));
+        }
+        long expected = session.chunkLength(index);
+        long offset = (long) index * session.chunkSize;
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) throw new IllegalStateException("upload session is closed");
+            session.lastActivityMillis = System.currentTimeMillis();
+            byte[] array = new byte[COPY_BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(array);
+            long written = 0;
+            int n;
+            while ((n = body.read(array, 0, (int) Math.min(array.length, expected - written + 1))) > 0) {
+                if (written + n > expected) {
+                    throw new IllegalArgumentException("chunk " + index + " must be exactly " + expected + " bytes");
+                }
+                buffer.clear().limit(n);
+                while (buffer.hasRemaining()) {
+                    written += session.channel.write(buffer, offset + written);
+                }
+            }
+            if (written != expected) {
+                throw new IllegalArgumentException("chunk " + index + " must be exactly " + expected + " bytes");
+            }
+            session.markReceived(index);
+            session.lastActivityMillis = System.currentTimeMillis();
+        } finally {
+            session.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Завершение загрузки: файл передаётся в Storage, возвращается токен
+     */
+    public String complete(Session session) throws IOException {
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) throw new IllegalStateException("upload session is closed");
+            int missing = session.chunkCount - session.receivedCount();
+            if (missing > 0) throw new IllegalStateException(missing + " chunks are missing");
+            session.closed = true;
+            sessions.remove(session.id, session);
+            try {
+                session.channel.force(false);
+            } finally {
+                session.channel.close();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(session.file);
+            release(session.client, session.size);
+            throw e;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+        try {
+            return storage.saveAssembledFile(session.file, session.name, session.contentType);
+        } finally {
+            // Файл уже учтён в хранилище или удалён
+            release(session.client, session.size);
+        }
+    }
+
+    public void abort(Session session) throws IOException {
+        session.lock.writeLock().lock();
+        try {
+            discard(session);
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Удаление сессий без активности дольше idleTimeout; сессия с идущей записью пропускается
+     */
+    public int expireIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeout.toMillis();
+        int expired = 0;
+        for (Session session : sessions.values()) {
+            if (session.lastActivityMillis > deadline || !session.lock.writeLock().tryLock()) continue;
+            try {
+                if (session.lastActivityMillis > deadline) continue;
+                discard(session);
+                expired++;
+            } catch (IOException e) {
+                System.err.println("Upload session cleanup error: " + e.getMessage());
+            } finally {
+                session.lock.writeLock().unlock();
+            }
+        }
+        return expired;
+    }
+
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    private void discard(Session session) throws IOException {
+        if (session.closed) return;
+        session.closed = true;
+        sessions.remove(session.id, session);
+        try {
+            session.channel.close();
+        } finally {
+            Files.deleteIfExists(session.file);
+            release(session.client, session.size);
+        }
+    }
+
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * На диске не хватает места под файл сессии
+     */
+    public static class InsufficientSpaceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public InsufficientSpaceException(long size) {
+            super("Not enough disk space for " + size + " bytes");
+        }
+    }
+
+    /**
+     * Превышен лимит открытых сессий
+     */
+    public static class TooManySessionsException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public TooManySessionsException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.fileshare.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Фильтр Блума для 64-битных ключей
+ * mightContain без блокировок и выделения памяти; ложные срабатывания возможны, пропуски - нет.
+ * Удаление не поддерживается: для очистки фильтр строится заново
+ */
+public final class BloomFilter {
+    private static final int HASHES = 4;
+
+    private final AtomicLongArray bits;
+    private final int mask;
+
+    /**
+     * @param expectedKeys ожидаемое число ключей; на ключ отводится около 16 бит
+     */
+    public BloomFilter(int expectedKeys) {
+        int size = Integer.highestOneBit(Math.max(1024, Math.min(expectedKeys, 1 << 26) * 16) - 1) << 1;
+        this.bits = new AtomicLongArray(size >>> 6);
+        this.mask = size - 1;
+    }
+
+    public void put(long key) {
+        long h = mix(key);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) h & mask;
+            long m = 1L << bit;
+            int word = bit >>> 6;
+            long v;
+            while (((v = bits.get(word)) & m) == 0 && !bits.compareAndSet(word, v, v | m)) {
+                // повтор при гонке с другой записью в то же слово
+            }
+            h = Long.rotateLeft(h * 0x9E3779B97F4A7C15L, 17);
+        }
+    }
+
+    public boolean mightContain(long key) {
+        long h = mix(key);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) h & mask;
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) return false;
+            h = Long.rotateLeft(h * 0x9E3779B97F4A7C15L, 17);
+        }
+        return true;
+    }
+
+    private static long mix(long key) {
+        // финализатор SplitMix64
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+}
@@ -0,0 +1,60 @@
+package com.fileshare.utils;
+
+/**
+ * Поиск разделителя multipart алгоритмом Бойера-Мура-Хорспула
+ * Таблица сдвигов строится один раз на разделитель, поэтому в бинарных данных
+ * окно сдвигается почти всегда на всю длину образца
+ */
+public final class BoundaryMatcher {
+    private final byte[] pattern;
+    private final int[] shift = new int[256];
+
+    public BoundaryMatcher(byte[] pattern) {
+        if (pattern.length == 0) throw new IllegalArgumentException("Empty pattern");
+        this.pattern = pattern.clone();
+        int m = pattern.length;
+        java.util.Arrays.fill(shift, m);
+        for (int i = 0; i < m - 1; i++) {
+            shift[pattern[i] & 0xFF] = m - 1 - i;
+        }
+    }
+
+    public int length() {
+        return pattern.length;
+    }
+
+    /**
+     * Позиция первого вхождения образца в data[from, to) или -1
+     */
+    public int indexOf(byte[] data, int from, int to) {
+        int m = pattern.length;
+        int last = m - 1;
+        byte lastByte = pattern[last];
+        int i = from;
+        while (i <= to - m) {
+            byte b = data[i + last];
+            if (b == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && data[i + j] == pattern[j]) j--;
+                if (j < 0) return i;
+            }
+            i += shift[b & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Длина самого длинного хвоста data[from, to), совпадающего с началом образца.
+     * Эти байты могут оказаться началом разделителя, продолжение которого ещё не прочитано
+     */
+    public int partialMatchLength(byte[] data, int from, int to) {
+        int max = Math.min(pattern.length - 1, to - from);
+        for (int k = max; k > 0; k--) {
+            int start = to - k;
+            int j = 0;
+            while (j < k && data[start + j] == pattern[j]) j++;
+            if (j == k) return k;
+        }
+        return 0;
+    }
+}
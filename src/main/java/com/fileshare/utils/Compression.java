@@ -0,0 +1,33 @@
+package com.fileshare.utils;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Выбор файлов для хранения в сжатом виде
+ * Сжимаются текстовые форматы (логи, CSV, JSON и т.п.); архивы, изображения и видео
+ * уже сжаты, и повторное сжатие только тратит процессор
+ */
+public final class Compression {
+    public static final String GZIP = "gzip";
+
+    private static final Set<String> TYPES = Set.of(
+            "application/json", "application/x-ndjson", "application/xml", "application/javascript",
+            "application/x-javascript", "application/sql", "application/x-yaml", "application/yaml",
+            "application/csv", "application/x-sh", "image/svg+xml");
+    private static final Set<String> EXTENSIONS = Set.of(
+            "txt", "log", "csv", "tsv", "json", "ndjson", "jsonl", "xml", "html", "htm", "css", "js",
+            "md", "yaml", "yml", "sql", "svg", "ini", "conf", "cfg", "properties", "sh", "out");
+
+    private Compression() {}
+
+    public static boolean isCompressible(String contentType, String filename) {
+        if (contentType != null) {
+            String type = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+            if (type.startsWith("text/") || TYPES.contains(type) || type.endsWith("+json") || type.endsWith("+xml")) {
+                return true;
+            }
+        }
+        return EXTENSIONS.contains(JsonUtils.getFileExtension(filename));
+    }
+}
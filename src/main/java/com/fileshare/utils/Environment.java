@@ -19,4 +19,16 @@ public final class Environment {
         if (v == null) return defaultValue;
         try { return Long.parseLong(v.trim()); } catch (NumberFormatException e) { return defaultValue; }
     }
+
+    public static double getDouble(String key, double defaultValue) {
+        String v = System.getenv(key);
+        if (v == null) return defaultValue;
+        try { return Double.parseDouble(v.trim()); } catch (NumberFormatException e) { return defaultValue; }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String v = System.getenv(key);
+        if (v == null || v.isBlank()) return defaultValue;
+        return v.trim().equalsIgnoreCase("true");
+    }
 }
@@ -0,0 +1,182 @@
+package com.fileshare.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Передача содержимого файла в поток ответа
+ * Данные копируются через переиспользуемые буферы по 256 КиБ из общего пула: поток ответа
+ * HttpExchange не является каналом, поэтому sendfile здесь недоступен. Файлы, сжатые при хранении,
+ * могут распаковываться по пути
+ */
+public final class FileTransfer {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final ArrayBlockingQueue<ByteBuffer> POOL =
+            new ArrayBlockingQueue<>(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    private FileTransfer() {}
+
+    /**
+     * Передача count байт файла начиная с position
+     */
+    public static long transfer(FileChannel source, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            byte[] array = buffer.array();
+            long done = 0;
+            while (done < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - done));
+                int n = source.read(buffer, position + done);
+                if (n < 0) throw new EOFException("File is shorter than expected");
+                out.write(array, 0, n);
+                done += n;
+            }
+            return done;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Передача count байт буфера начиная с position (например, из кэша вне кучи); позиция буфера не меняется
+     */
+    public static long transfer(ByteBuffer source, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer slice = source.duplicate();
+        slice.position((int) position).limit((int) (position + count));
+        if (slice.hasArray()) {
+            out.write(slice.array(), slice.arrayOffset() + slice.position(), slice.remaining());
+            return count;
+        }
+        ByteBuffer buffer = acquire();
+        try {
+            byte[] array = buffer.array();
+            while (slice.hasRemaining()) {
+                int n = Math.min(array.length, slice.remaining());
+                slice.get(array, 0, n);
+                out.write(array, 0, n);
+            }
+            return count;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Передача count байт распакованного содержимого gzip-файла начиная с position.
+     * Распаковка начинается с ближайшей точки входа SeekableGzip, предшествующие ей байты
+     * пропускаются; файл без индекса распаковывается с начала
+     */
+    public static long inflate(FileChannel source, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SeekableGzip.HEADER_BYTES);
+        while (header.hasRemaining() && source.read(header, header.position()) > 0) {
+            // заголовок короче буфера только у файлов без индекса
+        }
+        SeekableGzip.Point point = SeekableGzip.find(header.flip(), position);
+        PositionalReader reader = new PositionalReader(source, point == null ? 0 : point.compressed());
+        return inflate(Channels.newInputStream(reader), point, position, count, out);
+    }
+
+    public static long inflate(ByteBuffer source, long position, long count, OutputStream out) throws IOException {
+        SeekableGzip.Point point = SeekableGzip.find(source, position);
+        ByteBuffer compressed = source.duplicate();
+        if (point != null) compressed.position((int) point.compressed());
+        return inflate(new BufferInputStream(compressed), point, position, count, out);
+    }
+
+    private static long inflate(InputStream compressed, SeekableGzip.Point point, long position, long count,
+                                OutputStream out) throws IOException {
+        // С точки входа идёт голый deflate-поток без заголовка gzip
+        Inflater inflater = point == null ? null : new Inflater(true);
+        ByteBuffer buffer = acquire();
+        try (InputStream in = inflater == null
+                ? new GZIPInputStream(compressed, 64 * 1024)
+                : new InflaterInputStream(compressed, inflater, 64 * 1024)) {
+            in.skipNBytes(point == null ? position : position - point.uncompressed());
+            byte[] array = buffer.array();
+            long done = 0;
+            while (done < count) {
+                int n = in.read(array, 0, (int) Math.min(array.length, count - done));
+                if (n < 0) throw new EOFException("Compressed file is shorter than expected");
+                out.write(array, 0, n);
+                done += n;
+            }
+            return done;
+        } finally {
+            if (inflater != null) inflater.end();
+            release(buffer);
+        }
+    }
+
+    /**
+     * Последовательное чтение канала с заданного места без изменения его позиции: канал может читаться параллельно
+     */
+    private static final class PositionalReader implements ReadableByteChannel {
+        private final FileChannel channel;
+        private long position;
+
+        PositionalReader(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = channel.read(dst, position);
+            if (n > 0) position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // Каналом владеет вызывающий код
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+
+    // Буферы в куче: поток HttpExchange принимает только byte[], прямой буфер добавил бы ещё одно копирование
+    private static ByteBuffer acquire() {
+        ByteBuffer buffer = POOL.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    private static void release(ByteBuffer buffer) {
+        POOL.offer(buffer);
+    }
+}
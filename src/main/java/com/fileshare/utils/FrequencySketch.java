@@ -0,0 +1,77 @@
+package com.fileshare.utils;
+
+/**
+ * Приблизительная частота обращений к ключам (count-min sketch для TinyLFU)
+ * Четыре 4-битных счётчика на ключ упакованы в массив long; частота - минимум из них.
+ * После 10 × ширина увеличений все счётчики делятся пополам, поэтому старая популярность
+ * со временем забывается. Не потокобезопасна
+ */
+public final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedKeys примерное число различных ключей в рабочем наборе
+     */
+    public FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(64, Math.min(expectedKeys, 1 << 24)) - 1) << 1;
+        this.table = new long[width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < 4; row++) {
+            long h = hash * SEEDS[row];
+            int index = indexOf(h);
+            int shift = offsetOf(h, row);
+            min = Math.min(min, (int) ((table[index] >>> shift) & 0xF));
+        }
+        return min;
+    }
+
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            long h = hash * SEEDS[row];
+            int index = indexOf(h);
+            int shift = offsetOf(h, row);
+            if (((table[index] >>> shift) & 0xF) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long h) {
+        return (int) (h >>> 40) & mask;
+    }
+
+    // В каждом long по 4 счётчика на строку: строка выбирает четвёрку, хеш - счётчик в ней
+    private static int offsetOf(long h, int row) {
+        return ((row << 2) + (int) ((h >>> 20) & 3)) << 2;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
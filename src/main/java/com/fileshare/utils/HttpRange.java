@@ -0,0 +1,86 @@
+package com.fileshare.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Диапазон байт из заголовка Range (RFC 7233), границы включительные
+ */
+public final class HttpRange {
+    private static final int MAX_RANGES = 16;
+
+    public final long start;
+    public final long end;
+
+    private HttpRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /**
+     * Разбор заголовка Range для ресурса размером size.
+     * null - заголовок не распознан или диапазонов слишком много, отдаётся весь ресурс;
+     * пустой список - ни один диапазон не попадает в ресурс (416).
+     * Пересекающиеся и соседние диапазоны объединяются
+     */
+    public static List<HttpRange> parse(String header, long size) {
+        if (header == null) return null;
+        String h = header.trim();
+        if (!h.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+        List<HttpRange> ranges = new ArrayList<>();
+        for (String spec : h.substring(6).split(",")) {
+            String s = spec.trim();
+            if (s.isEmpty()) continue;
+            int dash = s.indexOf('-');
+            if (dash < 0) return null;
+            String first = s.substring(0, dash).trim();
+            String last = s.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // Суффикс: последние N байт
+                    long n = Long.parseLong(last);
+                    if (n < 0) return null;
+                    if (n == 0 || size == 0) continue;
+                    ranges.add(new HttpRange(Math.max(0, size - n), size - 1));
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) return null;
+                    if (start >= size) continue;
+                    ranges.add(new HttpRange(start, Math.min(end, size - 1)));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        List<HttpRange> merged = coalesce(ranges);
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    private static List<HttpRange> coalesce(List<HttpRange> ranges) {
+        if (ranges.size() < 2) return ranges;
+        ranges.sort(Comparator.comparingLong(r -> r.start));
+        List<HttpRange> merged = new ArrayList<>();
+        HttpRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            HttpRange next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new HttpRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+}
@@ -1,20 +1,118 @@
 package com.fileshare.utils;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Утилиты для работы с HTTP запросами
  */
 public class HttpUtils {
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
     
+    /**
+     * Форматирование даты для заголовков Last-Modified и Date
+     */
+    public static String formatHttpDate(long epochSec) {
+        return HTTP_DATE.format(Instant.ofEpochSecond(epochSec));
+    }
+    
+    /**
+     * Разбор даты из заголовка, -1 если формат не распознан
+     */
+    public static long parseHttpDate(String value) {
+        if (value == null) return -1;
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Установка валидаторов ответа: ETag, Last-Modified и Cache-Control
+     */
+    public static void setValidators(HttpExchange exchange, String etag, long lastModifiedEpochSec, String cacheControl) {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Last-Modified", formatHttpDate(lastModifiedEpochSec));
+        headers.set("Cache-Control", cacheControl);
+    }
+    
+    /**
+     * Проверка условного запроса: у клиента уже есть эта версия ресурса.
+     * If-None-Match имеет приоритет над If-Modified-Since
+     */
+    public static boolean isNotModified(HttpExchange exchange, String etag, long lastModifiedEpochSec) {
+        Headers request = exchange.getRequestHeaders();
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String c = candidate.trim();
+                if (c.startsWith("W/")) c = c.substring(2);
+                if (c.equals("*") || c.equals(etag)) return true;
+            }
+            return false;
+        }
+        long since = parseHttpDate(request.getFirst("If-Modified-Since"));
+        return since >= 0 && lastModifiedEpochSec <= since;
+    }
+    
+    /**
+     * gzip допустим, если он указан в Accept-Encoding (или через *) без q=0.
+     * Явное указание gzip (x-gzip) важнее *: "gzip;q=0, *" gzip запрещает
+     */
+    public static boolean acceptsGzip(HttpExchange exchange) {
+        List<String> headers = exchange.getRequestHeaders().get("Accept-Encoding");
+        if (headers == null) return false;
+        double gzip = -1, any = -1;
+        for (String item : String.join(",", headers).split(",")) {
+            String[] parts = item.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean explicit = coding.equals("gzip") || coding.equals("x-gzip");
+            if (!explicit && !coding.equals("*")) continue;
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try { q = Double.parseDouble(param.substring(2)); } catch (NumberFormatException e) { q = 0; }
+                }
+            }
+            if (explicit) {
+                gzip = Math.max(gzip, q);
+            } else {
+                any = Math.max(any, q);
+            }
+        }
+        return (gzip >= 0 ? gzip : any) > 0;
+    }
+    
+    /**
+     * Отправка 304 (Not Modified)
+     */
+    public static void sendNotModified(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(304, -1);
+    }
+    
+
     /**
      * Отправка JSON ответа
      */
     public static void sendJsonResponse(HttpExchange exchange, int statusCode, String json) throws IOException {
         byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
-        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
         exchange.sendResponseHeaders(statusCode, bytes.length);
         try (var os = exchange.getResponseBody()) {
             os.write(bytes);
@@ -36,6 +134,41 @@ public class HttpUtils {
         }
     }
     
+    /**
+     * Публичная ссылка на скачивание с учётом заголовков обратного прокси
+     */
+    public static String downloadUrl(HttpExchange exchange, String token) {
+        String host = exchange.getRequestHeaders().getFirst("X-Forwarded-Host");
+        if (host == null) {
+            String hostHeader = exchange.getRequestHeaders().getFirst("Host");
+            if (hostHeader != null && !hostHeader.isEmpty()) {
+                host = hostHeader;
+            } else {
+                host = "localhost:" + exchange.getLocalAddress().getPort();
+            }
+        }
+        String scheme = exchange.getRequestHeaders().getFirst("X-Forwarded-Proto");
+        if (scheme == null) scheme = "http";
+        return scheme + "://" + host + "/d/" + token;
+    }
+    
+    /**
+     * Параметры строки запроса; при повторе имени берётся первое значение
+     */
+    public static Map<String, String> queryParams(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) return Map.of();
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.putIfAbsent(name, value);
+        }
+        return params;
+    }
+    
     /**
      * Проверка HTTP метода
      */
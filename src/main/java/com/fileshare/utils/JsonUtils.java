@@ -6,15 +6,43 @@ package com.fileshare.utils;
 public class JsonUtils {
     
     /**
-     * Экранирование строки для JSON
+     * Экранирование строки для JSON: кавычки, обратная косая черта и все управляющие символы
      */
     public static String escapeJson(String str) {
         if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                 .replace("\"", "\\\"")
-                 .replace("\n", "\\n")
-                 .replace("\r", "\\r")
-                 .replace("\t", "\\t");
+        int len = str.length();
+        int i = 0;
+        while (i < len && !needsEscape(str.charAt(i))) i++;
+        if (i == len) return str;
+        StringBuilder sb = new StringBuilder(len + 16);
+        sb.append(str, 0, i);
+        for (; i < len; i++) {
+            char c = str.charAt(i);
+            if (!needsEscape(c)) {
+                sb.append(c);
+                continue;
+            }
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                default -> {
+                    sb.append("\\u");
+                    String hex = Integer.toHexString(c);
+                    for (int pad = hex.length(); pad < 4; pad++) sb.append('0');
+                    sb.append(hex);
+                }
+            }
+        }
+        return sb.toString();
+    }
+    
+    private static boolean needsEscape(char c) {
+        return c < 0x20 || c == '"' || c == '\\' || c == 0x2028 || c == 0x2029;
     }
     
     /**
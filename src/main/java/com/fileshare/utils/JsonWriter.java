@@ -0,0 +1,283 @@
+package com.fileshare.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Потоковая запись JSON ответа прямо в UTF-8 байты
+ * Ответ копится в буфере из пула; небольшой ответ уходит с точным Content-Length,
+ * при переполнении буфера отправляются заголовки и дальше данные идут chunked-порциями
+ * размером с буфер, так что память не зависит от размера ответа
+ */
+public final class JsonWriter implements Closeable {
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_DEPTH = 32;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final ArrayBlockingQueue<byte[]> POOL =
+            new ArrayBlockingQueue<>(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    private final HttpExchange exchange;
+    private final int status;
+    private byte[] buffer;
+    private int pos;
+    private OutputStream out;
+    // Для каждого уровня вложенности: был ли уже элемент (нужна ли запятая)
+    private final boolean[] hasElement = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(HttpExchange exchange, int status) {
+        this.exchange = exchange;
+        this.status = status;
+        this.buffer = acquire();
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separator();
+        writeString(name);
+        ensure(1);
+        buffer[pos++] = ':';
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separator();
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separator();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    /**
+     * true, если заголовки ответа уже отправлены и изменить статус нельзя
+     */
+    public boolean isCommitted() {
+        return out != null;
+    }
+
+    /**
+     * Отказ от неотправленного ответа, например чтобы ответить ошибкой
+     */
+    public void discard() {
+        if (out == null) release();
+    }
+
+    /**
+     * Отправка оставшихся данных и завершение ответа
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) return;
+        try {
+            if (out == null) {
+                exchange.sendResponseHeaders(status, pos == 0 ? -1 : pos);
+                if (pos > 0) {
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(buffer, 0, pos);
+                    }
+                }
+            } else {
+                try (OutputStream os = out) {
+                    if (pos > 0) os.write(buffer, 0, pos);
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separator();
+        if (depth == MAX_DEPTH) throw new IllegalStateException("JSON nesting is too deep");
+        ensure(1);
+        buffer[pos++] = (byte) bracket;
+        hasElement[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0) throw new IllegalStateException("No open JSON container");
+        depth--;
+        ensure(1);
+        buffer[pos++] = (byte) bracket;
+        return this;
+    }
+
+    private void separator() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) return;
+        if (hasElement[depth - 1]) {
+            ensure(1);
+            buffer[pos++] = ',';
+        }
+        hasElement[depth - 1] = true;
+    }
+
+    private void writeAscii(String s) throws IOException {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            writeAscii(Long.toString(v));
+            return;
+        }
+        ensure(20);
+        if (v < 0) {
+            buffer[pos++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) digits++;
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos = end;
+    }
+
+    /**
+     * Строка в кавычках с экранированием по RFC 8259; U+2028/U+2029 экранируются для встраивания в JS,
+     * одиночные суррогаты заменяются на U+FFFD
+     */
+    private void writeString(String s) throws IOException {
+        ensure(1);
+        buffer[pos++] = '"';
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            // Худший случай на символ - экранирование в шесть байт
+            ensure(6);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[pos++] = (byte) c;
+                } else {
+                    writeEscape(c);
+                }
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xC0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[pos++] = (byte) (0xF0 | (cp >> 18));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (c == 0x2028 || c == 0x2029) {
+                writeUnicodeEscape(c);
+            } else {
+                if (Character.isSurrogate(c)) c = 0xFFFD;
+                buffer[pos++] = (byte) (0xE0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensure(1);
+        buffer[pos++] = '"';
+    }
+
+    private void writeEscape(char c) {
+        char shortForm = switch (c) {
+            case '"' -> '"';
+            case '\\' -> '\\';
+            case '\n' -> 'n';
+            case '\r' -> 'r';
+            case '\t' -> 't';
+            case '\b' -> 'b';
+            case '\f' -> 'f';
+            default -> 0;
+        };
+        if (shortForm == 0) {
+            writeUnicodeEscape(c);
+        } else {
+            buffer[pos++] = '\\';
+            buffer[pos++] = (byte) shortForm;
+        }
+    }
+
+    private void writeUnicodeEscape(char c) {
+        buffer[pos++] = '\\';
+        buffer[pos++] = 'u';
+        buffer[pos++] = HEX[(c >> 12) & 0xF];
+        buffer[pos++] = HEX[(c >> 8) & 0xF];
+        buffer[pos++] = HEX[(c >> 4) & 0xF];
+        buffer[pos++] = HEX[c & 0xF];
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (pos + bytes <= buffer.length) return;
+        if (out == null) {
+            // Длина заранее неизвестна: chunked transfer encoding
+            exchange.sendResponseHeaders(status, 0);
+            out = exchange.getResponseBody();
+        }
+        out.write(buffer, 0, pos);
+        pos = 0;
+    }
+
+    private static byte[] acquire() {
+        byte[] b = POOL.poll();
+        return b != null ? b : new byte[BUFFER_SIZE];
+    }
+
+    private void release() {
+        if (buffer != null) {
+            POOL.offer(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.fileshare.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасная лог-линейная гистограмма длительностей в микросекундах
+ * Каждая степень двойки делится на 4 корзины; запись - одно атомарное увеличение без блокировок
+ * и выделения памяти. Границы степеней двойки совпадают с границами корзин, поэтому
+ * накопленные счётчики на них точные
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        // Корзина включает верхнюю границу, а не нижнюю: значение, равное границе le, считается в ней
+        counts.incrementAndGet(bucketOf(Math.max(0, micros - 1)));
+        sumMicros.add(micros);
+    }
+
+    public long sumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * Число значений не больше каждой из границ (границы - возрастающие степени двойки) и общее число
+     * в последнем элементе результата. Под нагрузкой снимок согласован лишь приблизительно
+     */
+    public long[] cumulativeCounts(long[] powerOfTwoBounds) {
+        long[] result = new long[powerOfTwoBounds.length + 1];
+        long seen = 0;
+        int next = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            long upper = b + 1 < BUCKETS ? lowerBound(b + 1) : Long.MAX_VALUE;
+            while (next < powerOfTwoBounds.length && upper > powerOfTwoBounds[next]) {
+                result[next++] = seen;
+            }
+            seen += counts.get(b);
+        }
+        while (next < powerOfTwoBounds.length) result[next++] = seen;
+        result[powerOfTwoBounds.length] = seen;
+        return result;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fileshare.utils;
+
+/**
+ * Лог-линейная гистограмма неотрицательных значений в массиве long
+ * Значения до 128 хранятся точно, дальше каждая степень двойки делится на 128 корзин,
+ * поэтому относительная ошибка квантилей не превышает 1/128. В отличие от KLL и t-digest
+ * поддерживает удаление значений и слияние сложением массивов. Не потокобезопасна
+ */
+public final class LogLinearHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+
+    public void add(long value) {
+        counts[bucketOf(value)]++;
+        total++;
+    }
+
+    /**
+     * Удаление ранее добавленного значения
+     */
+    public void remove(long value) {
+        int b = bucketOf(value);
+        if (counts[b] == 0) return;
+        counts[b]--;
+        total--;
+    }
+
+    public void merge(LogLinearHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    /**
+     * Значение ранга floor(q * count) среди отсортированных значений (середина корзины)
+     */
+    public long quantile(double q) {
+        if (total == 0) return 0;
+        long rank = Math.min(total - 1, Math.max(0, (long) Math.floor(q * total)));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen > rank) {
+                long lower = lowerBound(b);
+                return lower + (upperBound(b) - lower) / 2;
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) Math.max(0, value);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return lowerBound(bucket) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,203 @@
+package com.fileshare.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Потоковый разбор multipart/form-data
+ * Читает тело запроса буферами фиксированного размера и отдаёт данные частей
+ * как InputStream, не загружая тело целиком в память
+ */
+public final class MultipartStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    /**
+     * Часть multipart-сообщения. Тело доступно до вызова следующего nextPart()
+     */
+    public record Part(String name, String filename, String contentType, InputStream body) {}
+
+    private final InputStream in;
+    private final BoundaryMatcher delimiter;
+    private final byte[] buf;
+    private int head;
+    private int tail;
+    // Позиции буфера до scanned уже проверены и не могут начинать разделитель
+    private int scanned;
+    private boolean inBody = true;
+    private boolean finished;
+
+    public MultipartStream(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = new BoundaryMatcher(("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1));
+        this.buf = new byte[Math.max(BUFFER_SIZE, MAX_HEADER_SIZE + delimiter.length() * 2)];
+        // Первый разделитель может стоять в самом начале тела без CRLF перед ним
+        buf[0] = '\r';
+        buf[1] = '\n';
+        tail = 2;
+    }
+
+    /**
+     * Переход к следующей части. Непрочитанный остаток текущей части пропускается.
+     * Возвращает null, когда встречен закрывающий разделитель
+     */
+    public Part nextPart() throws IOException {
+        if (finished) return null;
+        if (inBody) {
+            skipBody();
+        }
+        if (!ensure(2)) throw new EOFException("Unexpected end of multipart stream");
+        if (buf[head] == '-' && buf[head + 1] == '-') {
+            head += 2;
+            finished = true;
+            return null;
+        }
+        // Остаток строки разделителя (допускается transport padding)
+        readLine();
+
+        String name = null, filename = null, contentType = null;
+        int headerBytes = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            headerBytes += line.length();
+            if (headerBytes > MAX_HEADER_SIZE) throw new IOException("Multipart headers too large");
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String k = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String v = line.substring(colon + 1).trim();
+            if (k.equals("content-disposition")) {
+                name = dispositionParam(v, "name");
+                filename = dispositionParam(v, "filename");
+            } else if (k.equals("content-type")) {
+                contentType = v;
+            }
+        }
+        if (filename != null) {
+            try {
+                filename = java.net.URLDecoder.decode(filename, StandardCharsets.UTF_8);
+            } catch (Exception e) {
+            }
+        }
+        inBody = true;
+        return new Part(name, filename, contentType, new PartInputStream());
+    }
+
+    private static String dispositionParam(String disposition, String param) {
+        for (String attr : disposition.split(";")) {
+            String t = attr.trim();
+            if (t.startsWith(param + "=")) {
+                String v = t.substring(param.length() + 1);
+                if (v.length() >= 2 && v.startsWith("\"") && v.endsWith("\"")) {
+                    v = v.substring(1, v.length() - 1);
+                }
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private void skipBody() throws IOException {
+        while (readBody(null, 0, Integer.MAX_VALUE) >= 0) {
+            // пропускаем данные до разделителя
+        }
+    }
+
+    /**
+     * Чтение данных текущей части. При dst == null данные только пропускаются
+     */
+    private int readBody(byte[] dst, int off, int len) throws IOException {
+        if (!inBody) return -1;
+        while (true) {
+            int idx = delimiter.indexOf(buf, Math.max(head, scanned), tail);
+            if (idx == head) {
+                head += delimiter.length();
+                inBody = false;
+                return -1;
+            }
+            int available;
+            if (idx >= 0) {
+                available = idx - head;
+                scanned = idx;
+            } else {
+                // Без найденного разделителя безопасно отдавать всё, кроме хвоста,
+                // который может оказаться началом разделителя на границе буфера
+                int keep = delimiter.partialMatchLength(buf, Math.max(head, scanned), tail);
+                available = tail - head - keep;
+                scanned = tail - keep;
+            }
+            if (available > 0) {
+                int n = Math.min(available, len);
+                if (dst != null) System.arraycopy(buf, head, dst, off, n);
+                head += n;
+                return n;
+            }
+            if (!fill()) throw new EOFException("Unexpected end of multipart stream");
+        }
+    }
+
+    private String readLine() throws IOException {
+        int from = head;
+        while (true) {
+            for (int i = from; i < tail - 1; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                    String line = new String(buf, head, i - head, StandardCharsets.UTF_8);
+                    head = i + 2;
+                    return line;
+                }
+            }
+            if (tail - head >= MAX_HEADER_SIZE) throw new IOException("Multipart header line too long");
+            from = Math.max(head, tail - 1);
+            int shift = head;
+            if (!fill()) throw new EOFException("Unexpected end of multipart stream");
+            from -= shift - head;
+        }
+    }
+
+    private boolean ensure(int n) throws IOException {
+        while (tail - head < n) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Сдвигает непрочитанные данные в начало буфера и дочитывает поток
+     */
+    private boolean fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buf, head, buf, 0, tail - head);
+            tail -= head;
+            scanned = Math.max(0, scanned - head);
+            head = 0;
+        }
+        if (tail == buf.length) return true;
+        int n = in.read(buf, tail, buf.length - tail);
+        if (n < 0) return false;
+        tail += n;
+        return true;
+    }
+
+    private final class PartInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            return readBody(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            // Поток запроса закрывается вместе с HttpExchange
+        }
+    }
+}
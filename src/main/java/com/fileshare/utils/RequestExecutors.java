@@ -0,0 +1,124 @@
+package com.fileshare.utils;
+
+import com.sun.net.httpserver.HttpHandler;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Выбор модели выполнения запросов HttpServer по переменным окружения
+ * HTTP_EXECUTOR: pool (по умолчанию), virtual (Java 21+) или dispatcher (один поток сервера)
+ */
+public final class RequestExecutors {
+    private static final int OVERFLOW_THREADS = 2;
+    private static final int OVERFLOW_QUEUE_SIZE = 256;
+    // Запрос попал в поток сброса нагрузки: обработчик не вызывается, сразу уходит 503
+    private static final ThreadLocal<Boolean> SHED = new ThreadLocal<>();
+    private static final LongAdder SHED_REQUESTS = new LongAdder();
+
+    private RequestExecutors() {}
+
+    /**
+     * Выбранный исполнитель; executor == null означает поток-диспетчер HttpServer
+     */
+    public record Selection(Executor executor, String description) {}
+
+    public static Selection fromEnvironment() {
+        String mode = Environment.get("HTTP_EXECUTOR", "pool").trim().toLowerCase(Locale.ROOT);
+        switch (mode) {
+            case "dispatcher":
+                return new Selection(null, "dispatcher (single thread)");
+            case "virtual": {
+                Executor virtual = virtualThreadPerTask();
+                if (virtual != null) return new Selection(virtual, "virtual threads (one per request)");
+                System.err.println("Virtual threads require Java 21+, falling back to thread pool");
+                return boundedPool();
+            }
+            case "pool":
+                return boundedPool();
+            default:
+                System.err.println("Unknown HTTP_EXECUTOR '" + mode + "', using thread pool");
+                return boundedPool();
+        }
+    }
+
+    /**
+     * Пул фиксированного размера с ограниченной очередью. При переполнении запрос уходит
+     * в отдельный маленький пул, где на него сразу отвечают 503; обработчики в потоке-диспетчере
+     * не выполняются. Если переполнен и он, диспетчер закрывает соединение
+     */
+    private static Selection boundedPool() {
+        int threads = Math.max(1, Environment.getInt("HTTP_THREADS",
+                Math.max(8, Runtime.getRuntime().availableProcessors() * 4)));
+        int queueSize = Math.max(1, Environment.getInt("HTTP_QUEUE_SIZE", 1000));
+        ThreadPoolExecutor overflow = new ThreadPoolExecutor(OVERFLOW_THREADS, OVERFLOW_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(OVERFLOW_QUEUE_SIZE), namedThreads("http-overflow-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        overflow.allowCoreThreadTimeOut(true);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), namedThreads("http-worker-"), shedTo(overflow));
+        pool.allowCoreThreadTimeOut(true);
+        return new Selection(pool, "thread pool (" + threads + " threads, queue " + queueSize + ")");
+    }
+
+    private static RejectedExecutionHandler shedTo(Executor overflow) {
+        return (task, pool) -> overflow.execute(() -> {
+            SHED.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                SHED.remove();
+            }
+        });
+    }
+
+    /**
+     * Обёртка обработчика: запрос, не поместившийся в очередь пула, получает 503 без вызова обработчика.
+     * Тело запроса не читается, соединение закрывается после ответа
+     */
+    public static HttpHandler shedding(HttpHandler handler) {
+        return exchange -> {
+            if (SHED.get() == null) {
+                handler.handle(exchange);
+                return;
+            }
+            SHED_REQUESTS.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.getResponseHeaders().set("Connection", "close");
+            HttpUtils.sendJsonResponse(exchange, 503, "{\"error\":\"Server is busy\"}");
+        };
+    }
+
+    /**
+     * Число запросов, отклонённых с 503 из-за переполнения очереди
+     */
+    public static long shedRequests() {
+        return SHED_REQUESTS.sum();
+    }
+
+    private static Executor virtualThreadPerTask() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(false);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,170 @@
+package com.fileshare.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip с точками входа для чтения с произвольного места
+ * Через каждые stride байт исходных данных поток сбрасывается (Deflater.FULL_FLUSH): словарь
+ * обнуляется и выравнивается по байту, так что с этого места можно начать распаковку без
+ * предшествующих данных. Смещения точек хранятся в поле FEXTRA заголовка, которое обычные
+ * распаковщики пропускают, поэтому файл остаётся обычным gzip и отдаётся клиентам как есть.
+ * Число точек ограничено: при переполнении каждая вторая отбрасывается, а шаг удваивается
+ */
+public final class SeekableGzip {
+    private static final int MIN_STRIDE = 1024 * 1024;
+    private static final int MAX_POINTS = 64;
+    private static final byte SI1 = 'F';
+    private static final byte SI2 = 'S';
+    // Подполе: шаг (8) + число точек (2) + смещения (8 на точку)
+    private static final int INDEX_BYTES = 8 + 2 + 8 * MAX_POINTS;
+    private static final int EXTRA_BYTES = 4 + INDEX_BYTES;
+    // Фиксированная часть заголовка + XLEN + поле с индексом
+    public static final int HEADER_BYTES = 10 + 2 + EXTRA_BYTES;
+    private static final int FEXTRA = 4;
+
+    private SeekableGzip() {}
+
+    /**
+     * Точка входа: смещение в исходных данных и в сжатом файле
+     */
+    public record Point(long uncompressed, long compressed) {}
+
+    /**
+     * Ближайшая точка входа не дальше position по индексу из заголовка
+     *
+     * @param header начало файла с нулевой позиции (не меньше HEADER_BYTES байт)
+     * @return null, если заголовок без индекса (например, файл сжат до его появления)
+     */
+    public static Point find(ByteBuffer header, long position) {
+        ByteBuffer h = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (h.limit() < HEADER_BYTES) return null;
+        if ((h.get(0) & 0xFF) != 0x1f || (h.get(1) & 0xFF) != 0x8b || h.get(2) != Deflater.DEFLATED
+                || h.get(3) != FEXTRA) {
+            return null;
+        }
+        if ((h.getShort(10) & 0xFFFF) != EXTRA_BYTES || h.get(12) != SI1 || h.get(13) != SI2
+                || (h.getShort(14) & 0xFFFF) != INDEX_BYTES) {
+            return null;
+        }
+        long stride = h.getLong(16);
+        int points = h.getShort(24) & 0xFFFF;
+        if (stride <= 0 || points > MAX_POINTS) return null;
+        int i = (int) Math.min(points, position / stride);
+        if (i == 0) return new Point(0, HEADER_BYTES);
+        return new Point(i * stride, h.getLong(26 + 8 * (i - 1)));
+    }
+
+    /**
+     * Запись в файл; индекс дописывается в заголовок при закрытии
+     */
+    public static final class Output extends OutputStream {
+        private final FileChannel channel;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer buffer;
+        private final long[] points = new long[MAX_POINTS];
+        private int count;
+        private long stride = MIN_STRIDE;
+        private long total;
+        private long written;
+        private boolean closed;
+
+        public Output(FileChannel channel, int bufferSize) throws IOException {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(Math.max(bufferSize, HEADER_BYTES));
+            // Заголовок с пустым индексом, чтобы данные сразу шли на своё место
+            buffer.put(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, FEXTRA, 0, 0, 0, 0, 0, (byte) 255});
+            buffer.position(HEADER_BYTES);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = (int) Math.min(len, nextPoint() - total);
+                crc.update(b, off, n);
+                deflater.setInput(b, off, n);
+                while (!deflater.needsInput()) deflate(Deflater.NO_FLUSH);
+                total += n;
+                off += n;
+                len -= n;
+                if (total == nextPoint()) addPoint();
+            }
+        }
+
+        private long nextPoint() {
+            return (count + 1) * stride;
+        }
+
+        private void addPoint() throws IOException {
+            // Сброс пишет блоки до исчерпания входа; неполный выходной буфер - признак конца
+            while (deflate(Deflater.FULL_FLUSH) == 0) {
+                // буфер заполнен, продолжаем
+            }
+            if (count == MAX_POINTS) {
+                // Остаются точки на чётных кратных шага; текущая - нечётное кратное нового шага
+                for (int i = 0; i < MAX_POINTS / 2; i++) points[i] = points[2 * i + 1];
+                count = MAX_POINTS / 2;
+                stride *= 2;
+                return;
+            }
+            points[count++] = written + buffer.position();
+        }
+
+        /**
+         * @return 1, если deflater отдал всё, что мог, 0 - если буфер заполнился
+         */
+        private int deflate(int flush) throws IOException {
+            int n = deflater.deflate(buffer.array(), buffer.position(), buffer.remaining(), flush);
+            buffer.position(buffer.position() + n);
+            if (!buffer.hasRemaining()) {
+                drain();
+                return 0;
+            }
+            return 1;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) written += channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) deflate(Deflater.NO_FLUSH);
+                if (buffer.remaining() < 8) drain();
+                buffer.order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue()).putInt((int) total);
+                drain();
+                writeIndex();
+            } finally {
+                deflater.end();
+                channel.close();
+            }
+        }
+
+        private void writeIndex() throws IOException {
+            ByteBuffer index = ByteBuffer.allocate(HEADER_BYTES - 10).order(ByteOrder.LITTLE_ENDIAN);
+            index.putShort((short) EXTRA_BYTES).put(SI1).put(SI2).putShort((short) INDEX_BYTES);
+            index.putLong(stride).putShort((short) count);
+            for (int i = 0; i < count; i++) index.putLong(points[i]);
+            index.position(index.capacity()).flip();
+            long position = 10;
+            while (index.hasRemaining()) position += channel.write(index, position);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.fileshare.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Иерархическое колесо таймеров для сроков действия в миллисекундах
+ * Четыре уровня по 64 ячейки: 1 тик, 64 тика, 64² и 64³ тиков. Элемент кладётся на уровень,
+ * соответствующий оставшемуся времени; при повороте ячейки старшего уровня её элементы
+ * переносятся ниже. Добавление и истечение - O(1) в среднем, полного обхода нет.
+ * Удаление не поддерживается: владелец сам проверяет при истечении, актуален ли элемент.
+ * Не потокобезопасно
+ */
+public final class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    private record Timer<T>(T item, long deadlineTick) {}
+
+    private final long tickMillis;
+    private final List<List<Timer<T>>> wheels = new ArrayList<>(LEVELS);
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive");
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            wheels.add(new ArrayList<>());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void schedule(T item, long deadlineMillis) {
+        // Округление вверх: элемент не должен истечь раньше своего срока
+        place(new Timer<>(item, Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis)));
+        size++;
+    }
+
+    /**
+     * Поворот колеса до момента nowMillis; истёкшие элементы передаются в expired
+     *
+     * @return число истёкших элементов
+     */
+    public int advance(long nowMillis, Consumer<? super T> expired) {
+        long nowTick = nowMillis / tickMillis;
+        if (nowTick <= currentTick) return 0;
+        long previousTick = currentTick;
+        currentTick = nowTick;
+        int count = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * SLOT_BITS;
+            long from = previousTick >> shift;
+            long to = nowTick >> shift;
+            if (from == to) break; // старшие уровни тоже не повернулись
+            long steps = Math.min(to - from, SLOTS);
+            for (long s = 1; s <= steps; s++) {
+                count += expireSlot(level, (int) ((from + s) & (SLOTS - 1)), expired);
+            }
+        }
+        return count;
+    }
+
+    private int expireSlot(int level, int slot, Consumer<? super T> expired) {
+        List<Timer<T>> bucket = wheels.get(level * SLOTS + slot);
+        if (bucket.isEmpty()) return 0;
+        List<Timer<T>> due = new ArrayList<>(bucket);
+        bucket.clear();
+        int count = 0;
+        for (Timer<T> timer : due) {
+            if (timer.deadlineTick <= currentTick) {
+                size--;
+                count++;
+                expired.accept(timer.item);
+            } else {
+                place(timer);
+            }
+        }
+        return count;
+    }
+
+    private void place(Timer<T> timer) {
+        long delta = Math.max(1, timer.deadlineTick - currentTick);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << ((level + 1) * SLOT_BITS)) {
+            level++;
+        }
+        // Уже наступившие сроки попадают в ближайшую ячейку
+        long at = Math.max(timer.deadlineTick, currentTick + 1);
+        int slot = (int) ((at >> (level * SLOT_BITS)) & (SLOTS - 1));
+        wheels.get(level * SLOTS + slot).add(timer);
+    }
+}
@@ -0,0 +1,51 @@
+package com.fileshare.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ведро токенов для ограничения скорости в байтах в секунду
+ * Хранится одно число - момент, когда ведро снова станет полным (алгоритм GCRA), поэтому
+ * резервирование - одна CAS-операция без блокировок. Запрос больше ёмкости не отклоняется,
+ * а уводит ведро в долг: следующее ожидание будет соответственно дольше
+ */
+public final class TokenBucket {
+    private final double nanosPerByte;
+    private final long burstNanos;
+    // Момент (System.nanoTime), к которому оплачены все выданные байты
+    private final AtomicLong paidUntil;
+
+    /**
+     * @param bytesPerSecond средняя скорость
+     * @param burstBytes     ёмкость ведра: сколько можно передать сразу после простоя
+     */
+    public TokenBucket(long bytesPerSecond, long burstBytes) {
+        if (bytesPerSecond <= 0) throw new IllegalArgumentException("bytesPerSecond must be positive");
+        this.nanosPerByte = 1e9 / bytesPerSecond;
+        this.burstNanos = (long) (Math.max(1, burstBytes) * nanosPerByte);
+        this.paidUntil = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Списание bytes байт
+     *
+     * @return сколько наносекунд нужно подождать, чтобы не превысить скорость; 0 - можно сразу
+     */
+    public long reserve(long bytes) {
+        long cost = (long) (bytes * nanosPerByte);
+        while (true) {
+            long now = System.nanoTime();
+            long paid = paidUntil.get();
+            long next = Math.max(paid, now - burstNanos) + cost;
+            if (paidUntil.compareAndSet(paid, next)) {
+                return Math.max(0, next - now);
+            }
+        }
+    }
+
+    /**
+     * Ведро полное: состояние не отличается от только что созданного
+     */
+    public boolean isFull() {
+        return paidUntil.get() <= System.nanoTime() - burstNanos;
+    }
+}
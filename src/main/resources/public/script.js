@@ -15,6 +15,8 @@ const filesListEl = document.getElementById('filesList');
 const statsContentEl = document.getElementById('statsContent');
 
 let currentFiles = [];
+let nextFilesCursor = null;
+const FILES_PAGE_SIZE = 100;
 let authToken = null;
 let currentUsername = null;
 
@@ -139,10 +141,24 @@ function updateSelectedFile() {
 }
 
 // Загрузка списка файлов с сервера
-async function refreshFilesList(){
+// Параметры сортировки для сервера по значениям элементов управления
+function filesQuery(cursor) {
+  const fields = { name: 'name', size: 'size', downloads: 'downloads', date: 'created', lastDownload: 'lastDownloaded' };
+  const sortBy = document.getElementById('sortSelect').value;
+  const sortOrder = document.getElementById('sortOrder').value;
+  const params = new URLSearchParams({ limit: FILES_PAGE_SIZE });
+  if (sortOrder !== 'default') {
+    params.set('sort', fields[sortBy] || 'created');
+    params.set('order', sortOrder);
+  }
+  if (cursor) params.set('cursor', cursor);
+  return '/api/files?' + params.toString();
+}
+
+async function refreshFilesList(append = false){
   console.log('Загрузка списка файлов...');
   try{
-    const r = await fetch('/api/files', {
+    const r = await fetch(filesQuery(append ? nextFilesCursor : null), {
       headers: getAuthHeaders()
     });
     if(!r.ok) {
@@ -155,7 +171,8 @@ async function refreshFilesList(){
     }
     const j = await r.json();
     console.log('Получены файлы:', j.files);
-    currentFiles = j.files || [];
+    currentFiles = append ? currentFiles.concat(j.files || []) : (j.files || []);
+    nextFilesCursor = j.nextCursor || null;
     renderFilesList(currentFiles);
   }catch(e){
     console.error('Ошибка загрузки списка файлов:', e);
@@ -187,57 +204,17 @@ function renderFilesList(files) {
           <button onclick="deleteFile('${file.token}')" class="btn btn-danger">Удалить</button>
         </div>
       </div>
-    `).join('');
+    `).join('') + (nextFilesCursor
+      ? '<div style="text-align: center; padding: 10px;"><button onclick="refreshFilesList(true)" class="btn btn-primary">Показать ещё</button></div>'
+      : '');
   } else {
     filesListEl.innerHTML = '<div style="text-align: center; color: #666; padding: 20px;">Нет загруженных файлов</div>';
   }
 }
 
+// Сортировка выполняется сервером, список запрашивается заново с первой страницы
 function applySorting() {
-  const sortBy = document.getElementById('sortSelect').value;
-  const sortOrder = document.getElementById('sortOrder').value;
-  let sortedFiles = [...currentFiles];
-  
-  if (sortOrder === 'default') {
-    renderFilesList(sortedFiles);
-    return;
-  }
-  
-  let comparison = 0;
-  switch(sortBy) {
-    case 'name':
-      sortedFiles.sort((a, b) => {
-        comparison = (a.name || '').localeCompare(b.name || '');
-        return sortOrder === 'asc' ? comparison : -comparison;
-      });
-      break;
-    case 'size':
-      sortedFiles.sort((a, b) => {
-        comparison = a.size - b.size;
-        return sortOrder === 'asc' ? comparison : -comparison;
-      });
-      break;
-    case 'downloads':
-      sortedFiles.sort((a, b) => {
-        comparison = a.downloads - b.downloads;
-        return sortOrder === 'asc' ? comparison : -comparison;
-      });
-      break;
-    case 'date':
-      sortedFiles.sort((a, b) => {
-        comparison = a.created - b.created;
-        return sortOrder === 'asc' ? comparison : -comparison;
-      });
-      break;
-    case 'lastDownload':
-      sortedFiles.sort((a, b) => {
-        comparison = a.lastDownloaded - b.lastDownloaded;
-        return sortOrder === 'asc' ? comparison : -comparison;
-      });
-      break;
-  }
-  
-  renderFilesList(sortedFiles);
+  refreshFilesList();
 }
 
 function formatFileSize(bytes) {